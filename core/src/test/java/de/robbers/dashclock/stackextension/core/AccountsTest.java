@@ -0,0 +1,67 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AccountsTest {
+
+    @Test
+    public void groupsUserIdsBySite() {
+        Accounts accounts = Accounts.parse("stackoverflow:22656, superuser:1234;\n"
+                + "stackoverflow:1\tmeta.stackoverflow:7");
+
+        assertEquals(4, accounts.size());
+        assertEquals(Arrays.asList("stackoverflow", "superuser", "meta.stackoverflow"),
+                new ArrayList<>(accounts.getSites()));
+        assertEquals(Arrays.asList("22656", "1"), accounts.getUserIds("stackoverflow"));
+        assertEquals(Arrays.asList("1234"), accounts.getUserIds("superuser"));
+    }
+
+    @Test
+    public void countsDuplicatesOnce() {
+        Accounts accounts = Accounts.parse("superuser:1234, superuser:1234");
+
+        assertEquals(1, accounts.size());
+        assertEquals(Arrays.asList("1234"), accounts.getUserIds("superuser"));
+    }
+
+    @Test
+    public void ignoresMalformedEntries() {
+        Accounts accounts = Accounts.parse(",, :1, superuser:, superuser, askubuntu:12a,"
+                + " serverfault:42");
+
+        assertEquals(1, accounts.size());
+        assertEquals(Arrays.asList("serverfault"), new ArrayList<>(accounts.getSites()));
+        assertTrue(accounts.getUserIds("askubuntu").isEmpty());
+    }
+
+    @Test
+    public void emptyValues() {
+        assertTrue(Accounts.parse(null).isEmpty());
+        assertTrue(Accounts.parse("").isEmpty());
+        assertTrue(Accounts.parse(" \n ").isEmpty());
+    }
+
+    @Test
+    public void batchesAtMostMaxIdsPerRequest() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= 2 * Accounts.MAX_IDS_PER_REQUEST + 1; i++) {
+            ids.add(String.valueOf(i));
+        }
+
+        List<String> batches = Accounts.batch(ids);
+
+        assertEquals(3, batches.size());
+        assertEquals(Accounts.MAX_IDS_PER_REQUEST, batches.get(0).split(";").length);
+        assertTrue(batches.get(0).startsWith("1;2;3;"));
+        assertEquals(Accounts.MAX_IDS_PER_REQUEST, batches.get(1).split(";").length);
+        assertEquals(String.valueOf(ids.size()), batches.get(2));
+        assertTrue(Accounts.batch(new ArrayList<String>()).isEmpty());
+    }
+}
@@ -0,0 +1,157 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ApiParserTest {
+
+    private static Reader reader(String json) {
+        return new Utf8Reader(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void parseErrorReturnsTheErrorOfAnErrorBody() throws IOException {
+        ApiParser.ApiError error = ApiParser.parseError(reader("{\"error_id\":502,"
+                + "\"error_name\":\"throttle_violation\","
+                + "\"error_message\":\"too many requests from this IP\"}"));
+
+        assertNotNull(error);
+        assertEquals(502, error.id);
+        assertEquals("throttle_violation", error.name);
+        assertEquals("too many requests from this IP", error.message);
+    }
+
+    @Test
+    public void parseErrorReturnsNullForItems() throws IOException {
+        assertNull(ApiParser.parseError(reader("{\"items\":[],\"has_more\":false}")));
+        assertNull(ApiParser.parseError(reader("{\"quota_max\":300,\"items\":[{\"a\":1}]}")));
+    }
+
+    @Test
+    public void parseErrorFailsWithoutItems() {
+        try {
+            ApiParser.parseError(reader("{\"quota_max\":300}"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parseErrorFailsOnMalformedJson() {
+        for (String json : new String[] {"", "[1,2]", "<html>Bad gateway</html>",
+                "{\"error_id\":"}) {
+            try {
+                ApiParser.parseError(reader(json));
+                fail(json);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parseErrorStopsAtTheItems() throws IOException {
+        // the rest of a regular response is not read
+        assertNull(ApiParser.parseError(reader("{\"items\":[{\"user_id\":")));
+    }
+
+    @Test
+    public void parseUserFailsOnAnErrorBody() {
+        try {
+            ApiParser.parseUser(reader("{\"error_id\":400,\"error_name\":\"bad_parameter\","
+                    + "\"error_message\":\"site is required\"}"), new ApiParser.Wrapper());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parseUserReadsTheWrapper() throws IOException {
+        ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+        ApiParser.User user = ApiParser.parseUser(reader("{\"items\":[{\"user_id\":22656,"
+                + "\"account_id\":11683,\"reputation\":1000,\"reputation_change_day\":20}],"
+                + "\"has_more\":false,\"quota_max\":10000,\"quota_remaining\":9999}"), wrapper);
+
+        assertEquals(22656, user.userId);
+        assertEquals(11683, user.accountId);
+        assertEquals(1000, user.reputation);
+        assertEquals(20, user.reputationChangeDay);
+        assertEquals(10000, wrapper.quotaMax);
+        assertEquals(9999, wrapper.quotaRemaining);
+        assertEquals(-1, wrapper.backoff);
+        assertFalse(wrapper.hasMore);
+    }
+
+    @Test
+    public void parseUserReturnsNullWithoutUsers() throws IOException {
+        assertNull(ApiParser.parseUser(reader("{\"items\":[]}"), null));
+    }
+
+    @Test
+    public void parseUserReadsNullsAsDefaults() throws IOException {
+        ApiParser.User user = ApiParser.parseUser(reader("{\"items\":[{\"user_id\":1,"
+                + "\"reputation\":null,\"badge_counts\":{\"gold\":1}}]}"), null);
+        assertEquals(1, user.userId);
+        assertEquals(0, user.reputation);
+    }
+
+    @Test
+    public void parseUserFailsWithoutItems() {
+        try {
+            ApiParser.parseUser(reader("{\"quota_max\":300}"), new ApiParser.Wrapper());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parseReputationHandsOverEveryEvent() throws IOException {
+        final List<String> events = new ArrayList<String>();
+        ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+        ApiParser.parseReputation(reader("{\"items\":["
+                + "{\"on_date\":1700000100,\"post_id\":7,\"vote_type\":\"up_votes\","
+                + "\"reputation_change\":10,\"title\":\"A &amp; B\"},"
+                + "{\"on_date\":1700000000,\"post_id\":8,\"vote_type\":\"down_votes\","
+                + "\"reputation_change\":-2}],\"has_more\":true,\"backoff\":10}"), wrapper,
+                new ApiParser.ReputationHandler() {
+                    @Override
+                    public void onReputationChange(long onDate, long postId, String voteType,
+                            int reputationChange, String title) {
+                        events.add(onDate + " " + postId + " " + voteType + " "
+                                + reputationChange + " " + title);
+                    }
+                });
+
+        assertEquals(2, events.size());
+        assertEquals("1700000100 7 up_votes 10 A &amp; B", events.get(0));
+        assertEquals("1700000000 8 down_votes -2 ", events.get(1));
+        assertEquals(10, wrapper.backoff);
+        assertEquals(true, wrapper.hasMore);
+    }
+
+    @Test
+    public void parsePostTitlesSkipsPostsWithoutTitle() throws IOException {
+        Map<Long, String> titles = new HashMap<Long, String>();
+        ApiParser.parsePostTitles(reader("{\"items\":[{\"post_id\":7,\"title\":\"A &amp; B\"},"
+                + "{\"post_id\":8},{\"post_id\":9,\"title\":null}]}"), null, titles);
+
+        assertEquals(1, titles.size());
+        assertEquals("A &amp; B", titles.get(7L));
+    }
+}
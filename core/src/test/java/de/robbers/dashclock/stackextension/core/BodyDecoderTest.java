@@ -0,0 +1,116 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class BodyDecoderTest {
+    private static final byte[] BODY = body();
+
+    private static byte[] body() {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"post_id\":").append(i).append('}');
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        deflate.write(data);
+        deflate.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(BodyDecoder decoder, byte[] data, String encoding)
+            throws IOException {
+        decoder.decode(new ByteArrayInputStream(data), encoding);
+        return decoder.toByteArray();
+    }
+
+    private static void assertFails(BodyDecoder decoder, byte[] data, String encoding) {
+        try {
+            decoder.decode(new ByteArrayInputStream(data), encoding);
+            fail(encoding + " " + data.length + " bytes");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void decodesAllEncodings() throws IOException {
+        BodyDecoder decoder = new BodyDecoder();
+        assertArrayEquals(BODY, decode(decoder, BODY, null));
+        assertArrayEquals(BODY, decode(decoder, BODY, "identity"));
+        assertArrayEquals(BODY, decode(decoder, gzip(BODY), "gzip"));
+        assertArrayEquals(BODY, decode(decoder, deflate(BODY, false), "deflate"));
+        assertArrayEquals(BODY, decode(decoder, deflate(BODY, true), "deflate"));
+        assertEquals(BODY.length, decoder.getLength());
+        decoder.end();
+    }
+
+    @Test
+    public void failsOnTruncatedGzip() throws IOException {
+        BodyDecoder decoder = new BodyDecoder();
+        byte[] gzip = gzip(BODY);
+        // within the header, the compressed data and the trailer
+        for (int length : new int[] {1, 9, 10, gzip.length / 2, gzip.length - 8,
+                gzip.length - 1}) {
+            assertFails(decoder, Arrays.copyOf(gzip, length), "gzip");
+        }
+        // the decoder still works after a failure
+        assertArrayEquals(BODY, decode(decoder, gzip, "gzip"));
+        decoder.end();
+    }
+
+    @Test
+    public void failsOnTruncatedDeflate() throws IOException {
+        BodyDecoder decoder = new BodyDecoder();
+        byte[] deflate = deflate(BODY, true);
+        assertFails(decoder, Arrays.copyOf(deflate, deflate.length / 2), "deflate");
+        assertArrayEquals(BODY, decode(decoder, deflate, "deflate"));
+        decoder.end();
+    }
+
+    @Test
+    public void failsOnCorruptGzipTrailer() throws IOException {
+        BodyDecoder decoder = new BodyDecoder();
+        byte[] gzip = gzip(BODY);
+        gzip[gzip.length - 5] ^= 1;
+        assertFails(decoder, gzip, "gzip");
+        decoder.end();
+    }
+
+    @Test
+    public void failsOnUnknownEncoding() {
+        assertFails(new BodyDecoder(), BODY, "br");
+    }
+
+    @Test
+    public void emptyBodyIsEmptyInAnyEncoding() throws IOException {
+        BodyDecoder decoder = new BodyDecoder();
+        assertEquals(0, decode(decoder, new byte[0], "gzip").length);
+        assertEquals(0, decoder.getWireLength());
+    }
+}
@@ -0,0 +1,74 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class FileResponseCacheTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void readsEntriesBackFromDisk() {
+        File directory = new File(mFolder.getRoot(), "cache");
+        FileResponseCache.Entry put = new FileResponseCache(directory).put("users", bytes("a"));
+
+        FileResponseCache.Entry entry = new FileResponseCache(directory).get("users");
+        assertNotNull(entry);
+        assertArrayEquals(bytes("a"), entry.payload);
+        assertEquals(put.timestamp, entry.timestamp);
+        assertTrue(entry.isFresh(FileResponseCache.DEFAULT_TTL));
+        assertNull(new FileResponseCache(directory).get("questions"));
+    }
+
+    @Test
+    public void replacesEntries() {
+        FileResponseCache cache = new FileResponseCache(mFolder.getRoot());
+        cache.put("users", bytes("a"));
+        cache.put("users", bytes("b"));
+        assertArrayEquals(bytes("b"), cache.get("users").payload);
+        assertArrayEquals(bytes("b"),
+                new FileResponseCache(mFolder.getRoot()).get("users").payload);
+    }
+
+    @Test
+    public void staleEntriesAreStillReturned() {
+        FileResponseCache.Entry entry = new FileResponseCache.Entry(bytes("a"),
+                System.currentTimeMillis() - FileResponseCache.DEFAULT_TTL - 1);
+        assertFalse(entry.isFresh(FileResponseCache.DEFAULT_TTL));
+    }
+
+    @Test
+    public void boundsTheDiskCache() {
+        FileResponseCache cache = new FileResponseCache(mFolder.getRoot());
+        for (int i = 0; i < 300; i++) {
+            cache.put("page" + i, bytes("{\"items\":[]}"));
+        }
+        assertEquals(256, mFolder.getRoot().listFiles().length);
+        // the newest entry survives
+        assertNotNull(new FileResponseCache(mFolder.getRoot()).get("page299"));
+    }
+
+    @Test
+    public void clearDropsMemoryAndDisk() {
+        FileResponseCache cache = new FileResponseCache(mFolder.getRoot());
+        cache.put("users", bytes("a"));
+        cache.clear();
+        assertNull(cache.get("users"));
+        assertEquals(0, mFolder.getRoot().listFiles().length);
+    }
+}
@@ -0,0 +1,219 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HedgingExecutorTest {
+    private static final byte[] BODY = "{\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+    private static final HedgingExecutor.Policy POLICY =
+            new HedgingExecutor.Policy(10 * 1000, 2, false);
+
+    private final ExecutorService mPool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    /**
+     * Hands out the scripted attempts in order and counts them.
+     */
+    private static class ScriptedTransport implements HedgingExecutor.Transport {
+        final Deque<HedgingExecutor.Attempt> attempts = new ArrayDeque<>();
+        int opened;
+
+        ScriptedTransport(HedgingExecutor.Attempt... attempts) {
+            this.attempts.addAll(Arrays.asList(attempts));
+        }
+
+        @Override
+        public synchronized HedgingExecutor.Attempt open(String uri) {
+            opened++;
+            return attempts.poll();
+        }
+    }
+
+    private static class CountingListener implements HedgingExecutor.Listener {
+        int retries;
+        int hedges;
+        int hedgesWon;
+        int errors;
+
+        @Override
+        public synchronized void recordRetry() {
+            retries++;
+        }
+
+        @Override
+        public synchronized void recordHedge(boolean won) {
+            hedges++;
+            hedgesWon += won ? 1 : 0;
+        }
+
+        @Override
+        public synchronized void recordError() {
+            errors++;
+        }
+    }
+
+    private static HedgingExecutor.Attempt answer(final byte[] body) {
+        return new HedgingExecutor.Attempt() {
+            @Override
+            public byte[] call() {
+                return body;
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+
+    private static HedgingExecutor.Attempt fail(final int status, final String errorName) {
+        return new HedgingExecutor.Attempt() {
+            @Override
+            public byte[] call() throws IOException {
+                ApiParser.ApiError error = null;
+                if (errorName != null) {
+                    error = new ApiParser.ApiError();
+                    error.name = errorName;
+                }
+                throw new ApiErrorException(status, error);
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+
+    /**
+     * An attempt that does not answer until it is aborted.
+     */
+    private static class HangingAttempt implements HedgingExecutor.Attempt {
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public byte[] call() throws IOException {
+            try {
+                aborted.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Aborted");
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+    }
+
+    private HedgingExecutor executor(final boolean allow) {
+        return new HedgingExecutor(mPool, new HedgingExecutor.Gate() {
+            @Override
+            public boolean acquire(String endpoint) {
+                return allow;
+            }
+        });
+    }
+
+    @Test
+    public void returnsFirstAnswer() {
+        ScriptedTransport transport = new ScriptedTransport(answer(BODY));
+        CountingListener listener = new CountingListener();
+        assertArrayEquals(BODY, executor(true).execute("users", "u", POLICY, transport, listener));
+        assertEquals(1, transport.opened);
+        assertEquals(0, listener.retries + listener.hedges + listener.errors);
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        ScriptedTransport transport = new ScriptedTransport(fail(503, null), answer(BODY));
+        CountingListener listener = new CountingListener();
+        assertArrayEquals(BODY, executor(true).execute("users", "u", POLICY, transport, listener));
+        assertEquals(2, transport.opened);
+        assertEquals(1, listener.retries);
+        assertEquals(0, listener.errors);
+    }
+
+    @Test
+    public void doesNotRetryClientErrorsOrThrottleViolations() {
+        for (HedgingExecutor.Attempt attempt : Arrays.asList(fail(400, null),
+                fail(503, "throttle_violation"))) {
+            ScriptedTransport transport = new ScriptedTransport(attempt, answer(BODY));
+            CountingListener listener = new CountingListener();
+            assertNull(executor(true).execute("users", "u", POLICY, transport, listener));
+            assertEquals(1, transport.opened);
+            assertEquals(0, listener.retries);
+            assertEquals(1, listener.errors);
+        }
+    }
+
+    @Test
+    public void stopsAfterMaxRetries() {
+        ScriptedTransport transport = new ScriptedTransport(fail(500, null), fail(500, null),
+                fail(500, null), answer(BODY));
+        CountingListener listener = new CountingListener();
+        HedgingExecutor.Policy policy = new HedgingExecutor.Policy(10 * 1000, 1, false);
+        assertNull(executor(true).execute("users", "u", policy, transport, listener));
+        assertEquals(2, transport.opened);
+        assertEquals(1, listener.retries);
+        assertEquals(1, listener.errors);
+    }
+
+    @Test
+    public void retriesPassTheGate() {
+        ScriptedTransport transport = new ScriptedTransport(fail(503, null), answer(BODY));
+        CountingListener listener = new CountingListener();
+        assertNull(executor(false).execute("users", "u", POLICY, transport, listener));
+        assertEquals(1, transport.opened);
+        assertEquals(1, listener.errors);
+    }
+
+    @Test
+    public void hedgesSlowAttemptsAndAbortsTheLoser() {
+        HedgingExecutor executor = executor(true);
+        HedgingExecutor.Policy policy = new HedgingExecutor.Policy(10 * 1000, 0, true);
+        // enough fast answers to know the endpoint's latencies
+        for (int i = 0; i < 8; i++) {
+            executor.execute("users", "u", policy, new ScriptedTransport(answer(BODY)), null);
+        }
+
+        HangingAttempt slow = new HangingAttempt();
+        ScriptedTransport transport = new ScriptedTransport(slow, answer(BODY));
+        CountingListener listener = new CountingListener();
+        assertArrayEquals(BODY, executor.execute("users", "u", policy, transport, listener));
+        assertEquals(2, transport.opened);
+        assertEquals(1, listener.hedges);
+        assertEquals(1, listener.hedgesWon);
+        assertEquals(0, slow.aborted.getCount());
+    }
+
+    @Test
+    public void failsWhenTheBudgetRunsOut() {
+        HangingAttempt slow = new HangingAttempt();
+        CountingListener listener = new CountingListener();
+        HedgingExecutor.Policy policy = new HedgingExecutor.Policy(200, 2, false);
+        long start = System.nanoTime();
+        assertNull(executor(true).execute("users", "u", policy, new ScriptedTransport(slow),
+                listener));
+        assertTrue(System.nanoTime() - start < 5000L * 1000 * 1000);
+        assertEquals(0, slow.aborted.getCount());
+        assertEquals(1, listener.errors);
+    }
+}
@@ -0,0 +1,139 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RefreshPolicyTest {
+    private static final long NOW = 1000L * 1000 * 1000 * 1000;
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Test
+    public void intervalIsAQuarterOfTheMeanTimeBetweenChanges() {
+        RefreshPolicy policy = new RefreshPolicy();
+        assertEquals(15 * MINUTE, policy.getInterval(NOW, false, false));
+
+        policy.meanInterval = 2 * HOUR;
+        assertEquals(30 * MINUTE, policy.getInterval(NOW, false, false));
+    }
+
+    @Test
+    public void intervalIsClamped() {
+        RefreshPolicy policy = new RefreshPolicy();
+        policy.meanInterval = MINUTE;
+        assertEquals(RefreshPolicy.MIN_INTERVAL, policy.getInterval(NOW, false, false));
+
+        policy.meanInterval = 100 * HOUR;
+        assertEquals(RefreshPolicy.MAX_INTERVAL, policy.getInterval(NOW, false, false));
+    }
+
+    @Test
+    public void longQuietPeriodStretchesTheInterval() {
+        RefreshPolicy policy = new RefreshPolicy();
+        policy.meanInterval = HOUR;
+        policy.lastChange = NOW - 4 * HOUR;
+        assertEquals(HOUR, policy.getInterval(NOW, false, false));
+    }
+
+    @Test
+    public void meteredAndPushIntervals() {
+        RefreshPolicy policy = new RefreshPolicy();
+        assertEquals(45 * MINUTE, policy.getInterval(NOW, true, false));
+        assertEquals(RefreshPolicy.HEARTBEAT_INTERVAL, policy.getInterval(NOW, false, true));
+        assertEquals(RefreshPolicy.HEARTBEAT_INTERVAL, policy.getInterval(NOW, true, true));
+    }
+
+    @Test
+    public void learnsTheMeanIntervalFromNewerChanges() {
+        RefreshPolicy policy = new RefreshPolicy();
+        assertTrue(policy.onReputationChanged(NOW));
+        assertEquals(RefreshPolicy.DEFAULT_MEAN_INTERVAL, policy.meanInterval);
+
+        assertTrue(policy.onReputationChanged(NOW + 10 * MINUTE));
+        assertEquals((long) (0.7f * HOUR + 0.3f * 10 * MINUTE), policy.meanInterval);
+        assertEquals(NOW + 10 * MINUTE, policy.lastChange);
+
+        long meanInterval = policy.meanInterval;
+        assertFalse(policy.onReputationChanged(NOW + 10 * MINUTE));
+        assertFalse(policy.onReputationChanged(NOW));
+        assertEquals(meanInterval, policy.meanInterval);
+    }
+
+    @Test
+    public void waitsForTheIntervalOfTheSameData() {
+        RefreshPolicy policy = new RefreshPolicy();
+        assertEquals(0, policy.getIntervalRemaining("a", NOW, false, false));
+
+        policy.onFetched("a", NOW);
+        assertEquals(15 * MINUTE, policy.getIntervalRemaining("a", NOW, false, false));
+        assertEquals(5 * MINUTE,
+                policy.getIntervalRemaining("a", NOW + 10 * MINUTE, false, false));
+        assertEquals(0, policy.getIntervalRemaining("a", NOW + 15 * MINUTE, false, false));
+        assertEquals(0, policy.getIntervalRemaining("b", NOW, false, false));
+        // a clock set back does not block fetches
+        assertEquals(0, policy.getIntervalRemaining("a", NOW - MINUTE, false, false));
+    }
+
+    @Test
+    public void otherDataForgetsWhatWasLearned() {
+        RefreshPolicy policy = new RefreshPolicy();
+        policy.onFetched("a", NOW);
+        policy.onReputationChanged(NOW - HOUR);
+        policy.onReputationChanged(NOW);
+
+        policy.onFetched("a", NOW + MINUTE);
+        assertEquals(NOW, policy.lastChange);
+
+        policy.onFetched("b", NOW + 2 * MINUTE);
+        assertEquals(0, policy.lastChange);
+        assertEquals(RefreshPolicy.DEFAULT_MEAN_INTERVAL, policy.meanInterval);
+    }
+
+    @Test
+    public void retryDelayDoublesUpToTheMaximumInterval() {
+        assertEquals(0, RefreshPolicy.getRetryDelay(0));
+        assertEquals(MINUTE, RefreshPolicy.getRetryDelay(1));
+        assertEquals(2 * MINUTE, RefreshPolicy.getRetryDelay(2));
+        assertEquals(4 * MINUTE, RefreshPolicy.getRetryDelay(3));
+        assertEquals(128 * MINUTE, RefreshPolicy.getRetryDelay(8));
+        assertEquals(RefreshPolicy.MAX_INTERVAL, RefreshPolicy.getRetryDelay(9));
+        assertEquals(RefreshPolicy.MAX_INTERVAL, RefreshPolicy.getRetryDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void failedFetchesBackOff() {
+        RefreshPolicy policy = new RefreshPolicy();
+        policy.onFetchFailed("a", NOW);
+        assertEquals(MINUTE, policy.getRetryRemaining("a", NOW));
+        assertEquals(0, policy.getRetryRemaining("b", NOW));
+        // the failed data was never fetched, so only the backoff applies
+        assertEquals(0, policy.getIntervalRemaining("a", NOW, false, false));
+
+        policy.onFetchFailed("a", NOW + MINUTE);
+        assertEquals(2, policy.failures);
+        assertEquals(MINUTE, policy.getRetryRemaining("a", NOW + 2 * MINUTE));
+        assertEquals(0, policy.getRetryRemaining("a", NOW + 3 * MINUTE));
+
+        policy.onFetchFailed("b", NOW + 3 * MINUTE);
+        assertEquals(1, policy.failures);
+        assertEquals(0, policy.getRetryRemaining("a", NOW + 3 * MINUTE));
+    }
+
+    @Test
+    public void successEndsTheBackoff() {
+        RefreshPolicy policy = new RefreshPolicy();
+        policy.onFetched("a", NOW);
+        policy.onFetchFailed("a", NOW + 20 * MINUTE);
+        // the interval still counts from the last successful fetch
+        assertEquals(0, policy.getIntervalRemaining("a", NOW + 20 * MINUTE, false, false));
+
+        policy.onFetched("a", NOW + 21 * MINUTE);
+        assertEquals(0, policy.failures);
+        assertEquals(0, policy.getRetryRemaining("a", NOW + 21 * MINUTE));
+        assertEquals(15 * MINUTE, policy.getIntervalRemaining("a", NOW + 21 * MINUTE, false,
+                false));
+    }
+}
@@ -0,0 +1,78 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ReputationAggregatorTest {
+
+    private static void add(ReputationAggregator aggregator, long postId, int reputationChange) {
+        aggregator.onReputationChange(0, postId, "up_votes", reputationChange, "post " + postId);
+    }
+
+    private static long[] postIds(ReputationAggregator.Post[] posts) {
+        long[] postIds = new long[posts.length];
+        for (int i = 0; i < posts.length; i++) {
+            postIds[i] = posts[i].postId;
+        }
+        return postIds;
+    }
+
+    private static void assertPostIds(ReputationAggregator aggregator, long... expected) {
+        assertEquals(Arrays.toString(expected),
+                Arrays.toString(postIds(aggregator.getTopPosts())));
+    }
+
+    @Test
+    public void ordersByDescendingAbsoluteChange() {
+        ReputationAggregator aggregator = new ReputationAggregator(10);
+        add(aggregator, 1, 10);
+        add(aggregator, 2, -50);
+        add(aggregator, 3, 25);
+        add(aggregator, 1, 10);
+
+        assertPostIds(aggregator, 2, 3, 1);
+        ReputationAggregator.Post[] posts = aggregator.getTopPosts();
+        assertEquals(-50, posts[0].reputationChange);
+        assertEquals(20, posts[2].reputationChange);
+        assertEquals("post 1", posts[2].title);
+    }
+
+    @Test
+    public void tiesGoToThePostSeenFirst() {
+        ReputationAggregator aggregator = new ReputationAggregator(3);
+        for (long postId = 100; postId > 90; postId--) {
+            add(aggregator, postId, postId % 2 == 0 ? 10 : -10);
+        }
+        assertPostIds(aggregator, 100, 99, 98);
+    }
+
+    @Test
+    public void excludesPostsThatSumToZero() {
+        ReputationAggregator aggregator = new ReputationAggregator(10);
+        add(aggregator, 1, 10);
+        add(aggregator, 2, 5);
+        add(aggregator, 1, -10);
+
+        assertPostIds(aggregator, 2);
+        assertEquals(0, aggregator.getReputationChange(1));
+        assertEquals(2, aggregator.getPostCount());
+    }
+
+    @Test
+    public void keepsAtMostMaxPosts() {
+        ReputationAggregator aggregator = new ReputationAggregator(5);
+        // enough posts to grow the map a few times
+        for (int postId = 1; postId <= 1000; postId++) {
+            add(aggregator, postId * 7919L, postId);
+        }
+        assertEquals(1000, aggregator.getPostCount());
+        assertEquals(500, aggregator.getReputationChange(500 * 7919L));
+        assertPostIds(aggregator, 1000 * 7919L, 999 * 7919L, 998 * 7919L, 997 * 7919L,
+                996 * 7919L);
+
+        assertEquals(0, new ReputationAggregator(0).getTopPosts().length);
+    }
+}
@@ -0,0 +1,94 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class ReputationRollupTest {
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    private static long millis(String instant) {
+        return Instant.parse(instant).toEpochMilli();
+    }
+
+    private static ReputationRollup rollup(String now) {
+        return new ReputationRollup(BERLIN, Calendar.MONDAY, 40, millis(now));
+    }
+
+    @Test
+    public void shortDayStartsAtLocalMidnight() {
+        // 2023-03-26 has 23 hours, clocks go from 02:00 CET to 03:00 CEST
+        ReputationRollup rollup = rollup("2023-03-26T21:30:00Z");
+        rollup.add(millis("2023-03-25T22:59:59Z"), 1);
+        rollup.add(millis("2023-03-25T23:00:00Z"), 10);
+        rollup.add(millis("2023-03-26T21:59:59Z"), 100);
+
+        assertEquals(millis("2023-03-25T23:00:00Z"), rollup.getStartOfToday());
+        assertEquals(110, rollup.getToday());
+        assertEquals(1, rollup.getYesterday());
+    }
+
+    @Test
+    public void dayAfterShortDay() {
+        ReputationRollup rollup = rollup("2023-03-26T22:30:00Z");
+        rollup.add(millis("2023-03-26T21:59:59Z"), 1);
+        rollup.add(millis("2023-03-26T22:00:00Z"), 10);
+
+        assertEquals(millis("2023-03-26T22:00:00Z"), rollup.getStartOfToday());
+        assertEquals(10, rollup.getToday());
+        assertEquals(1, rollup.getYesterday());
+        // Monday, the week starts today
+        assertEquals(rollup.getStartOfToday(), rollup.getStartOfWeek());
+        assertEquals(10, rollup.getThisWeek());
+        assertEquals(11, rollup.getThisMonth());
+    }
+
+    @Test
+    public void longDayStartsAtLocalMidnight() {
+        // 2023-10-29 has 25 hours, clocks go from 03:00 CEST to 02:00 CET
+        ReputationRollup rollup = rollup("2023-10-29T22:30:00Z");
+        rollup.add(millis("2023-10-28T21:59:59Z"), 1);
+        rollup.add(millis("2023-10-28T22:00:00Z"), 10);
+        rollup.add(millis("2023-10-29T01:30:00Z"), 100);
+        rollup.add(millis("2023-10-29T22:59:59Z"), 1000);
+
+        assertEquals(millis("2023-10-28T22:00:00Z"), rollup.getStartOfToday());
+        assertEquals(1110, rollup.getToday());
+        assertEquals(1, rollup.getYesterday());
+        assertEquals(1111, rollup.getLastDays(2));
+    }
+
+    @Test
+    public void weekAndMonthSpanTheChange() {
+        ReputationRollup rollup = rollup("2023-10-29T12:00:00Z");
+        // Monday 2023-10-23 in CEST, Sunday 2023-10-22 before it
+        rollup.add(millis("2023-10-22T21:59:59Z"), 1);
+        rollup.add(millis("2023-10-22T22:00:00Z"), 10);
+        // 2023-09-30 in CEST, before the month
+        rollup.add(millis("2023-09-30T21:59:59Z"), 100);
+        rollup.add(millis("2023-10-29T11:00:00Z"), 1000);
+
+        assertEquals(millis("2023-10-22T22:00:00Z"), rollup.getStartOfWeek());
+        assertEquals(millis("2023-09-30T22:00:00Z"), rollup.getStartOfMonth());
+        assertEquals(1010, rollup.getThisWeek());
+        assertEquals(1011, rollup.getThisMonth());
+        assertEquals(1111, rollup.getLastDays(rollup.getDays()));
+    }
+
+    @Test
+    public void ignoresEventsOutsideTheKeptDays() {
+        ReputationRollup rollup = new ReputationRollup(BERLIN, Calendar.MONDAY, 3,
+                millis("2023-03-27T10:00:00Z"));
+        rollup.add(millis("2023-03-24T10:00:00Z"), 1);
+        rollup.add(millis("2023-03-25T10:00:00Z"), 10);
+        rollup.add(millis("2023-03-28T10:00:00Z"), 100);
+
+        assertEquals(10, rollup.getLastDays(3));
+        assertEquals(10, rollup.getDay(2));
+        assertEquals(0, rollup.getDay(3));
+    }
+}
@@ -0,0 +1,184 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ReputationSyncTest {
+    private static final long TO = 1000;
+
+    /**
+     * Serves events at the given dates like the API: newest first, the dates
+     * of a request inclusive.
+     */
+    private static class FakePager implements ReputationSync.Pager {
+        final List<Long> dates = new ArrayList<>();
+        final int pageSize;
+        final List<String> requests = new ArrayList<>();
+        int failAfter = Integer.MAX_VALUE;
+
+        FakePager(int pageSize, long first, long last, long step) {
+            this.pageSize = pageSize;
+            for (long date = last; date >= first; date -= step) {
+                dates.add(date);
+            }
+        }
+
+        @Override
+        public ReputationSync.Page fetchPage(long fetchFrom, long fetchTo, int page) {
+            requests.add(fetchFrom + "-" + fetchTo + "#" + page);
+            if (requests.size() > failAfter) {
+                return null;
+            }
+            List<Long> range = new ArrayList<>();
+            for (long date : dates) {
+                if (fetchFrom <= date && date <= fetchTo) {
+                    range.add(date);
+                }
+            }
+            int start = Math.min(range.size(), (page - 1) * pageSize);
+            List<Long> events = range.subList(start, Math.min(range.size(), page * pageSize));
+            return new ReputationSync.Page(events.isEmpty() ? 0 : events.get(0),
+                    events.isEmpty() ? Long.MAX_VALUE : events.get(events.size() - 1),
+                    range.size() > page * pageSize);
+        }
+    }
+
+    private static void assertSynced(long from, long until, ReputationSync.Result result) {
+        assertEquals(from, result.synced.from);
+        assertEquals(until, result.synced.until);
+    }
+
+    @Test
+    public void firstSyncCoversTheWindow() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE,
+                null);
+
+        assertSynced(100, 190, result);
+        assertTrue(result.covered);
+        assertEquals(190, result.lastSeen);
+        assertEquals(Arrays.asList("100-1000#1", "100-1000#2", "100-1000#3", "100-1000#4"),
+                pager.requests);
+    }
+
+    @Test
+    public void quietWindowIsSyncedFromItsStart() {
+        FakePager pager = new FakePager(3, 10, 50, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE,
+                null);
+
+        assertSynced(100, 100, result);
+        assertTrue(result.covered);
+        assertEquals(0, result.lastSeen);
+    }
+
+    @Test
+    public void pageLimitLeavesTheRestForTheNextSync() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 2, 100, TO, Long.MIN_VALUE,
+                null);
+
+        // the next sync has to fetch the events before the oldest one seen
+        assertSynced(141, 190, result);
+        assertFalse(result.covered);
+        assertEquals(2, pager.requests.size());
+
+        pager.dates.add(0, 200L);
+        pager.requests.clear();
+        result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE, result.synced);
+
+        assertSynced(100, 200, result);
+        assertTrue(result.covered);
+        assertEquals(200, result.lastSeen);
+        assertEquals(Arrays.asList("190-1000#1", "100-141#1", "100-141#2"), pager.requests);
+    }
+
+    @Test
+    public void cutoffStopsTheNewEventsAndTheBackfillContinues() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, 175, null);
+
+        assertSynced(100, 190, result);
+        assertTrue(result.covered);
+        assertEquals(Arrays.asList("100-1000#1", "100-171#1", "100-171#2", "100-171#3"),
+                pager.requests);
+    }
+
+    @Test
+    public void gapToTheSyncedRangeIsFilledFirst() {
+        FakePager pager = new FakePager(2, 100, 250, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 5, 100, TO, 215,
+                new ReputationSync.Range(100, 150));
+
+        // the backfill did not reach the synced range, so it is not synced
+        // beyond the new events and what the backfill has seen
+        assertSynced(171, 250, result);
+        assertFalse(result.covered);
+        assertEquals(Arrays.asList("150-1000#1", "150-1000#2", "150-1000#3", "150-201#1",
+                "150-201#2"), pager.requests);
+
+        pager.requests.clear();
+        result = ReputationSync.sync(pager, 5, 100, TO, 215, result.synced);
+
+        assertSynced(100, 250, result);
+        assertTrue(result.covered);
+        assertEquals(Arrays.asList("250-1000#1", "100-171#1", "100-171#2", "100-171#3",
+                "100-171#4"), pager.requests);
+    }
+
+    @Test
+    public void filledGapJoinsTheSyncedRange() {
+        FakePager pager = new FakePager(2, 100, 200, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 5, 100, TO, 185,
+                new ReputationSync.Range(90, 160));
+
+        assertSynced(90, 200, result);
+        assertTrue(result.covered);
+        assertEquals(Arrays.asList("160-1000#1", "160-1000#2", "160-171#1"), pager.requests);
+    }
+
+    @Test
+    public void syncedRangeBeforeTheWindowIsStartedOver() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE,
+                new ReputationSync.Range(10, 50));
+
+        assertSynced(100, 190, result);
+        assertTrue(result.covered);
+        assertEquals("100-1000#1", pager.requests.get(0));
+    }
+
+    @Test
+    public void failedFirstPageKeepsTheStore() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        pager.failAfter = 0;
+
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE,
+                new ReputationSync.Range(90, 190));
+        assertNull(result.synced);
+        assertTrue(result.covered);
+
+        result = ReputationSync.sync(pager, 10, 100, TO, Long.MIN_VALUE, null);
+        assertNull(result.synced);
+        assertFalse(result.covered);
+    }
+
+    @Test
+    public void failedBackfillKeepsWhatWasSeen() {
+        FakePager pager = new FakePager(3, 100, 190, 10);
+        pager.failAfter = 2;
+
+        ReputationSync.Result result = ReputationSync.sync(pager, 10, 100, TO, 175, null);
+        // the first backfill page went through
+        assertSynced(151, 190, result);
+        assertFalse(result.covered);
+    }
+}
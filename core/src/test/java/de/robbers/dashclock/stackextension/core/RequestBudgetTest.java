@@ -0,0 +1,105 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RequestBudgetTest {
+    // noon UTC, twelve hours before the quota is reset
+    private static final long NOW = 20000 * CalendarUtils.ONE_DAY + CalendarUtils.ONE_DAY / 2;
+    private static final long SECOND = 1000;
+
+    private static ApiParser.Wrapper wrapper(int quotaRemaining, int quotaMax, int backoff) {
+        ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+        wrapper.quotaRemaining = quotaRemaining;
+        wrapper.quotaMax = quotaMax;
+        wrapper.backoff = backoff;
+        return wrapper;
+    }
+
+    private static int acquireAll(RequestBudget budget, long now) {
+        int acquired = 0;
+        while (acquired < 1000 && budget.acquire("users", now)) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    @Test
+    public void unknownQuotaIsNotPaced() {
+        RequestBudget budget = new RequestBudget(NOW);
+        assertEquals(1000, acquireAll(budget, NOW));
+        assertEquals(-1, budget.getQuotaRemaining(NOW));
+    }
+
+    @Test
+    public void spreadsTheQuotaOverTheRestOfTheDay() {
+        RequestBudget budget = new RequestBudget(NOW);
+        // 4320 requests to spend in twelve hours, one every ten seconds
+        budget.record("users", wrapper(4320 + RequestBudget.RESERVE, 10000, -1), NOW);
+
+        assertEquals(RequestBudget.BURST, acquireAll(budget, NOW));
+        assertEquals(4320 + RequestBudget.RESERVE - RequestBudget.BURST,
+                budget.getQuotaRemaining(NOW));
+        assertEquals(0, budget.getAvailableRequests(NOW + 9 * SECOND));
+        assertEquals(1, acquireAll(budget, NOW + 11 * SECOND));
+        assertEquals(3, acquireAll(budget, NOW + 42 * SECOND));
+        // the bucket never holds more than a burst
+        assertEquals(RequestBudget.BURST, budget.getAvailableRequests(NOW + 3600 * SECOND));
+    }
+
+    @Test
+    public void keepsAReserve() {
+        RequestBudget budget = new RequestBudget(NOW);
+        budget.record("users", wrapper(RequestBudget.RESERVE, 10000, -1), NOW);
+        assertFalse(budget.acquire("users", NOW));
+
+        budget.record("users", wrapper(RequestBudget.RESERVE + 2, 10000, -1), NOW);
+        assertEquals(2, acquireAll(budget, NOW + 3600 * SECOND));
+        assertEquals(RequestBudget.RESERVE, budget.getQuotaRemaining(NOW + 3600 * SECOND));
+    }
+
+    @Test
+    public void quotaIsResetAtUtcMidnight() {
+        RequestBudget budget = new RequestBudget(NOW);
+        budget.record("users", wrapper(5, 300, -1), NOW);
+        assertFalse(budget.acquire("users", NOW));
+
+        long tomorrow = CalendarUtils.getTomorrow(NOW);
+        assertEquals(300, budget.getQuotaRemaining(tomorrow));
+        assertTrue(budget.acquire("users", tomorrow + 60 * SECOND));
+    }
+
+    @Test
+    public void replayedResponsesDoNotOverwriteNewerQuota() {
+        RequestBudget budget = new RequestBudget(NOW);
+        budget.record("users", wrapper(100, 300, -1), NOW);
+        budget.record("users", wrapper(250, 300, -1), NOW - 3600 * SECOND);
+        assertEquals(100, budget.getQuotaRemaining(NOW));
+
+        budget.record("users", wrapper(90, 300, -1), NOW + SECOND);
+        assertEquals(90, budget.getQuotaRemaining(NOW + SECOND));
+    }
+
+    @Test
+    public void backoffClosesOnlyItsEndpoint() {
+        RequestBudget budget = new RequestBudget(NOW);
+        assertTrue(budget.record("reputation", wrapper(-1, -1, 30), NOW));
+
+        assertFalse(budget.acquire("reputation", NOW + 29 * SECOND));
+        assertEquals(SECOND, budget.getBackoffRemaining("reputation", NOW + 29 * SECOND));
+        assertTrue(budget.acquire("users", NOW + 29 * SECOND));
+        assertTrue(budget.acquire("reputation", NOW + 30 * SECOND));
+        assertEquals(0, budget.getBackoffRemaining("reputation", NOW + 30 * SECOND));
+    }
+
+    @Test
+    public void shorterBackoffsDoNotShortenTheWindow() {
+        RequestBudget budget = new RequestBudget(NOW);
+        assertTrue(budget.record("reputation", wrapper(-1, -1, 60), NOW));
+        assertFalse(budget.record("reputation", wrapper(-1, -1, 10), NOW + SECOND));
+        assertEquals(30 * SECOND, budget.getBackoffRemaining("reputation", NOW + 30 * SECOND));
+    }
+}
@@ -0,0 +1,79 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+public class ResponseReaderTest {
+    private static final byte[] ITEMS = bytes("{\"items\":[{\"user_id\":1}],\"quota_max\":300}");
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ApiErrorException checkFails(int status, byte[] body) throws IOException {
+        try {
+            ResponseReader.check(status, body);
+        } catch (ApiErrorException e) {
+            return e;
+        }
+        fail("Status " + status + " passed");
+        return null;
+    }
+
+    @Test
+    public void decodesGzipAndCountsWireBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(ITEMS);
+        gzip.close();
+        byte[] wire = out.toByteArray();
+
+        ResponseReader reader = new ResponseReader(1);
+        // twice, the second time with the recycled decoder
+        for (int i = 0; i < 2; i++) {
+            ResponseReader.Body body = reader.decode(new ByteArrayInputStream(wire), "gzip");
+            assertArrayEquals(ITEMS, body.bytes);
+            assertEquals(wire.length, body.wireLength);
+        }
+        ResponseReader.Body plain = reader.decode(new ByteArrayInputStream(ITEMS), null);
+        assertArrayEquals(ITEMS, plain.bytes);
+        assertEquals(ITEMS.length, plain.wireLength);
+    }
+
+    @Test
+    public void passesBodiesWithItems() throws IOException {
+        assertArrayEquals(ITEMS, ResponseReader.check(200, ITEMS));
+    }
+
+    @Test
+    public void rejectsErrorBodies() throws IOException {
+        byte[] body = bytes("{\"error_id\":502,\"error_name\":\"throttle_violation\","
+                + "\"error_message\":\"too many requests\"}");
+        ApiErrorException e = checkFails(200, body);
+        assertEquals("throttle_violation", e.error.name);
+        assertFalse(e.isRetryable());
+
+        e = checkFails(400, body);
+        assertEquals(400, e.status);
+        assertEquals(502, e.error.id);
+    }
+
+    @Test
+    public void rejectsServerErrorsWithoutJson() throws IOException {
+        ApiErrorException e = checkFails(503, bytes("<html>Service Unavailable</html>"));
+        assertNull(e.error);
+        assertTrue(e.isRetryable());
+    }
+}
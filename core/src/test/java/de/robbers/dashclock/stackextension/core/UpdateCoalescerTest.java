@@ -0,0 +1,98 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UpdateCoalescerTest {
+    private static final long WINDOW = 60 * 1000;
+
+    private static class CountingFetch implements Callable<String> {
+        final AtomicInteger calls = new AtomicInteger();
+        final String result;
+
+        CountingFetch(String result) {
+            this.result = result;
+        }
+
+        @Override
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            return result;
+        }
+    }
+
+    @Test
+    public void sharesAResultWithinTheWindow() {
+        UpdateCoalescer<String> coalescer = new UpdateCoalescer<>(WINDOW);
+        CountingFetch first = new CountingFetch("first");
+        CountingFetch second = new CountingFetch("second");
+
+        assertEquals("first", coalescer.run("a", first));
+        assertEquals("first", coalescer.run("a", second));
+        assertEquals(1, first.calls.get());
+        assertEquals(0, second.calls.get());
+        assertEquals("second", coalescer.run("b", second));
+    }
+
+    @Test
+    public void failedFetchesAreNotShared() {
+        UpdateCoalescer<String> coalescer = new UpdateCoalescer<>(WINDOW);
+        assertNull(coalescer.run("a", new CountingFetch(null)));
+        assertNull(coalescer.run("a", () -> {
+            throw new IllegalStateException("failed");
+        }));
+
+        CountingFetch fetch = new CountingFetch("result");
+        assertEquals("result", coalescer.run("a", fetch));
+        assertEquals(1, fetch.calls.get());
+    }
+
+    @Test
+    public void resultsAreDroppedAfterTheWindow() throws InterruptedException {
+        UpdateCoalescer<String> coalescer = new UpdateCoalescer<>(20);
+        CountingFetch fetch = new CountingFetch("result");
+        coalescer.run("a", fetch);
+        Thread.sleep(50);
+
+        coalescer.run("a", fetch);
+        assertEquals(2, fetch.calls.get());
+    }
+
+    @Test
+    public void joinsARunningFetch() throws InterruptedException {
+        final UpdateCoalescer<String> coalescer = new UpdateCoalescer<>(WINDOW);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingFetch joined = new CountingFetch("joined");
+        final AtomicReference<String> ownerResult = new AtomicReference<>();
+        final AtomicReference<String> joinerResult = new AtomicReference<>();
+
+        Thread owner = new Thread(() -> ownerResult.set(coalescer.run("a", () -> {
+            started.countDown();
+            release.await();
+            return "owner";
+        })));
+        owner.start();
+        started.await();
+        Thread joiner = new Thread(() -> joinerResult.set(coalescer.run("a", joined)));
+        joiner.start();
+        // parked on the running fetch
+        while (joiner.getState() != Thread.State.WAITING && joiner.isAlive()) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        owner.join();
+        joiner.join();
+
+        assertEquals("owner", ownerResult.get());
+        assertEquals("owner", joinerResult.get());
+        assertEquals(0, joined.calls.get());
+    }
+}
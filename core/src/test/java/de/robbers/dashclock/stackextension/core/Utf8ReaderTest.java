@@ -0,0 +1,76 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class Utf8ReaderTest {
+
+    private static String readAll(Utf8Reader reader, int chunk) {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[chunk];
+        int count;
+        while ((count = reader.read(buffer, 0, chunk)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+
+    private static String decode(byte[] bytes) {
+        return readAll(new Utf8Reader(bytes), 64);
+    }
+
+    @Test
+    public void decodesAllSequenceLengths() {
+        String text = "aé€😀z";
+        assertEquals(text, decode(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void keepsTheLowSurrogateForTheNextRead() {
+        String text = "😀𝄞x😀";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= 4; chunk++) {
+            assertEquals("chunk " + chunk, text, readAll(new Utf8Reader(bytes), chunk));
+        }
+    }
+
+    @Test
+    public void pendingSurrogateIsReadAtTheEnd() {
+        Utf8Reader reader = new Utf8Reader("😀".getBytes(StandardCharsets.UTF_8));
+        char[] buffer = new char[1];
+
+        assertEquals(1, reader.read(buffer, 0, 1));
+        assertEquals('\ud83d', buffer[0]);
+        assertEquals(true, reader.ready());
+        assertEquals(1, reader.read(buffer, 0, 1));
+        assertEquals('\ude00', buffer[0]);
+        assertEquals(-1, reader.read(buffer, 0, 1));
+    }
+
+    @Test
+    public void resetDropsThePendingSurrogate() {
+        Utf8Reader reader = new Utf8Reader("😀".getBytes(StandardCharsets.UTF_8));
+        char[] buffer = new char[1];
+        reader.read(buffer, 0, 1);
+
+        byte[] next = "ok".getBytes(StandardCharsets.UTF_8);
+        assertEquals("ok", readAll(reader.reset(next, 0, next.length), 8));
+    }
+
+    @Test
+    public void replacesMalformedSequences() {
+        // lone continuation, overlong encoding, encoded surrogate, truncated end
+        byte[] bytes = {'a', (byte) 0x80, 'b', (byte) 0xC0, (byte) 0xAF, 'c', (byte) 0xED,
+                (byte) 0xA0, (byte) 0x80, 'd', (byte) 0xF0, (byte) 0x9F, (byte) 0x98};
+        assertEquals("a\uFFFDb\uFFFD\uFFFDc\uFFFDd\uFFFD", decode(bytes));
+    }
+
+    @Test
+    public void skipsTheByteOrderMark() {
+        byte[] bytes = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '{', '}'};
+        assertEquals("{}", decode(bytes));
+    }
+}
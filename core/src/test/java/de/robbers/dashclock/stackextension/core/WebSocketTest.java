@@ -0,0 +1,209 @@
+package de.robbers.dashclock.stackextension.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class WebSocketTest {
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+
+    private ServerSocket mServer;
+    private Socket mPeer;
+    private OutputStream mPeerOut;
+    private WebSocket mWebSocket;
+    // frames are written off the test thread, a large one may not fit the socket buffers
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() throws Exception {
+        mWriter.shutdown();
+        mWriter.awaitTermination(5, TimeUnit.SECONDS);
+        if (mWebSocket != null) {
+            mWebSocket.close();
+        }
+        if (mPeer != null) {
+            mPeer.close();
+        }
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    /**
+     * Connects a WebSocket to a local server socket that answers the
+     * handshake and then writes whatever frames the test gives it.
+     */
+    private void connect() throws Exception {
+        mServer = new ServerSocket(0);
+        final Exception[] failure = new Exception[1];
+        Thread accept = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mPeer = mServer.accept();
+                    String key = readHandshake(mPeer.getInputStream());
+                    mPeerOut = mPeer.getOutputStream();
+                    mPeerOut.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                            + "Upgrade: websocket\r\n"
+                            + "Connection: Upgrade\r\n"
+                            + "Sec-WebSocket-Accept: " + WebSocket.getAcceptKey(key) + "\r\n"
+                            + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    mPeerOut.flush();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        accept.start();
+        mWebSocket = WebSocket.connect(new URI("ws://127.0.0.1:" + mServer.getLocalPort() + "/"),
+                null, 5000);
+        accept.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static String readHandshake(InputStream in) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        while (!request.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed during handshake");
+            }
+            request.write(b);
+        }
+        for (String line : request.toString("ISO-8859-1").split("\r\n")) {
+            if (line.startsWith("Sec-WebSocket-Key:")) {
+                return line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+        throw new IOException("Missing Sec-WebSocket-Key");
+    }
+
+    /**
+     * Returns an unmasked server frame with the payload length in the given
+     * number of extended length bytes: 0, 2 or 8.
+     */
+    private static byte[] frame(int opcode, boolean fin, byte[] payload, int lengthBytes) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write((fin ? 0x80 : 0) | opcode);
+        if (lengthBytes == 0) {
+            frame.write(payload.length);
+        } else {
+            frame.write(lengthBytes == 2 ? 126 : 127);
+            for (int i = lengthBytes - 1; i >= 0; i--) {
+                frame.write((int) ((long) payload.length >>> (8 * i)));
+            }
+        }
+        frame.write(payload, 0, payload.length);
+        return frame.toByteArray();
+    }
+
+    private static byte[] text(int length) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) 'x');
+        return payload;
+    }
+
+    private void write(final byte[] frame) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mPeerOut.write(frame);
+                    mPeerOut.flush();
+                } catch (IOException e) {
+                    // the test fails on the receiving side
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void assertReceiveFails(Class<? extends IOException> type) {
+        try {
+            mWebSocket.receive();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.toString(), type.isInstance(e));
+        }
+    }
+
+    @Test
+    public void receivesAllLengthEncodings() throws Exception {
+        connect();
+        for (int length : new int[] {0, 125, 126, 0xFFFF, 0x10000}) {
+            int lengthBytes = length < 126 ? 0 : length <= 0xFFFF ? 2 : 8;
+            write(frame(OPCODE_TEXT, true, text(length), lengthBytes));
+            assertEquals(length, mWebSocket.receive().length());
+        }
+    }
+
+    @Test
+    public void acceptsNonMinimalLengths() throws Exception {
+        connect();
+        write(frame(OPCODE_TEXT, true, text(5), 2));
+        assertEquals("xxxxx", mWebSocket.receive());
+        write(frame(OPCODE_TEXT, true, text(5), 8));
+        assertEquals("xxxxx", mWebSocket.receive());
+    }
+
+    @Test
+    public void joinsFragments() throws Exception {
+        connect();
+        write(frame(OPCODE_TEXT, false, "hel".getBytes(StandardCharsets.UTF_8), 0));
+        write(frame(OPCODE_CONTINUATION, false, "lo ".getBytes(StandardCharsets.UTF_8), 2));
+        write(frame(OPCODE_CONTINUATION, true, "wörld".getBytes(StandardCharsets.UTF_8), 0));
+        assertEquals("hello wörld", mWebSocket.receive());
+    }
+
+    @Test
+    public void rejectsNegativeLength() throws Exception {
+        connect();
+        write(new byte[] {(byte) (0x80 | OPCODE_TEXT), 127, (byte) 0x80, 0, 0, 0, 0, 0, 0, 1});
+        assertReceiveFails(ProtocolException.class);
+    }
+
+    @Test
+    public void rejectsTooLargeFrame() throws Exception {
+        connect();
+        // only the header is sent, the length alone must fail the frame
+        write(new byte[] {(byte) (0x80 | OPCODE_TEXT), 127, 0, 0, 0, 0, 0, 0x10, 0, 1});
+        assertReceiveFails(IOException.class);
+    }
+
+    @Test
+    public void rejectsMaskedFrame() throws Exception {
+        connect();
+        write(new byte[] {(byte) (0x80 | OPCODE_TEXT), (byte) 0x81, 1, 2, 3, 4, 'x'});
+        assertReceiveFails(IOException.class);
+    }
+
+    @Test
+    public void returnsNullOnClose() throws Exception {
+        connect();
+        write(frame(OPCODE_CLOSE, true, new byte[] {0x03, (byte) 0xE8}, 0));
+        assertNull(mWebSocket.receive());
+        assertTrue(mWebSocket.isClosed());
+    }
+}
@@ -0,0 +1,79 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.ReputationAggregator;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse cost of one update: the /users response and reputation responses of
+ * increasing size, once parsed only and once fed into the aggregator. Run with
+ * -prof gc to see the allocations per update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiParserBenchmark {
+
+    @Param({"8", "100", "1000", "10000"})
+    public int events;
+
+    private byte[] mUser;
+    private byte[] mReputation;
+
+    @Setup
+    public void setUp() throws IOException {
+        mUser = Fixtures.load("fixtures/user.json");
+        mReputation = events == 8
+                ? Fixtures.load("fixtures/reputation.json")
+                : Fixtures.reputation(events);
+    }
+
+    private static Reader open(byte[] json) {
+        return new Utf8Reader(json);
+    }
+
+    @Benchmark
+    public ApiParser.User parseUser() throws IOException {
+        return ApiParser.parseUser(open(mUser), new ApiParser.Wrapper());
+    }
+
+    @Benchmark
+    public void parseReputation(final Blackhole blackhole) throws IOException {
+        ApiParser.parseReputation(open(mReputation), new ApiParser.Wrapper(),
+                new ApiParser.ReputationHandler() {
+                    @Override
+                    public void onReputationChange(long onDate, long postId, String voteType,
+                            int reputationChange, String title) {
+                        blackhole.consume(postId);
+                        blackhole.consume(reputationChange);
+                    }
+                });
+    }
+
+    @Benchmark
+    public ReputationAggregator.Post[] parseAndAggregate() throws IOException {
+        ReputationAggregator aggregator = new ReputationAggregator(2);
+        ApiParser.parseReputation(open(mReputation), new ApiParser.Wrapper(), aggregator);
+        return aggregator.getTopPosts();
+    }
+}
@@ -0,0 +1,85 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.BodyDecoder;
+import de.robbers.dashclock.stackextension.core.ReputationAggregator;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * From a gzipped reputation response to the top posts: a fresh
+ * GZIPInputStream, output stream and InputStreamReader per response against
+ * the pooled decoder and the UTF-8 reader. Run with -prof gc to compare the
+ * allocations per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyDecoderBenchmark {
+
+    @Param({"100", "1000"})
+    public int events;
+
+    private byte[] mGzipped;
+    private final BodyDecoder mDecoder = new BodyDecoder();
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(Fixtures.reputation(events));
+        gzip.close();
+        mGzipped = out.toByteArray();
+    }
+
+    @Benchmark
+    public ReputationAggregator.Post[] streams() throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(mGzipped));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        byte[] json = out.toByteArray();
+
+        ReputationAggregator aggregator = new ReputationAggregator(2);
+        ApiParser.parseReputation(new InputStreamReader(new ByteArrayInputStream(json),
+                Fixtures.UTF_8), new ApiParser.Wrapper(), aggregator);
+        return aggregator.getTopPosts();
+    }
+
+    @Benchmark
+    public ReputationAggregator.Post[] pooled() throws IOException {
+        mDecoder.decode(new ByteArrayInputStream(mGzipped), "gzip");
+        // like ApiClient, which hands out a copy the response cache can keep
+        byte[] json = mDecoder.toByteArray();
+
+        ReputationAggregator aggregator = new ReputationAggregator(2);
+        ApiParser.parseReputation(new Utf8Reader(json), new ApiParser.Wrapper(), aggregator);
+        return aggregator.getTopPosts();
+    }
+}
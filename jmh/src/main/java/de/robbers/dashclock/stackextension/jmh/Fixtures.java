@@ -0,0 +1,82 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * API responses for the benchmarks. Small responses are recorded, larger
+ * reputation histories are generated in the same shape as the default filter
+ * returns them, with post ids repeating like they do for a busy account.
+ */
+public final class Fixtures {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] TITLES = {
+            "Why is processing a sorted array faster than an unsorted array?",
+            "What&#39;s the hardest or most misunderstood aspect of LINQ?",
+            "Is &quot;int&quot; a reference type in C#?",
+            "String vs StringBuilder",
+            "What are the correct version numbers for C#?"
+    };
+
+    private static final String[] VOTE_TYPES = {
+            "up_votes", "up_votes", "up_votes", "up_votes", "accepts", "down_votes", "bounties_won"
+    };
+
+    private Fixtures() {
+    }
+
+    public static byte[] load(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a /users/{id}/reputation response with the given number of
+     * events, spread over roughly events / 4 posts, newest first.
+     */
+    public static byte[] reputation(int events) {
+        Random random = new Random(events);
+        int posts = Math.max(1, events / 4);
+        long onDate = 1376570816L;
+        StringBuilder json = new StringBuilder(events * 320);
+        json.append("{\"items\":[");
+        for (int i = 0; i < events; i++) {
+            long postId = 18000000L + random.nextInt(posts);
+            String voteType = VOTE_TYPES[random.nextInt(VOTE_TYPES.length)];
+            int change = voteType.equals("accepts") ? 15
+                    : voteType.equals("down_votes") ? -2
+                    : voteType.equals("bounties_won") ? 50 * (1 + random.nextInt(10))
+                    : 10;
+            String title = TITLES[(int) (postId % TITLES.length)];
+            onDate -= 1 + random.nextInt(600);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"user_id\":22656,\"post_id\":").append(postId)
+                    .append(",\"post_type\":\"answer\",\"vote_type\":\"").append(voteType)
+                    .append("\",\"title\":\"").append(title)
+                    .append("\",\"link\":\"http://stackoverflow.com/questions/").append(postId)
+                    .append("\",\"reputation_change\":").append(change)
+                    .append(",\"on_date\":").append(onDate).append('}');
+        }
+        json.append("],\"has_more\":false,\"quota_max\":10000,\"quota_remaining\":9980}");
+        return json.toString().getBytes(UTF_8);
+    }
+}
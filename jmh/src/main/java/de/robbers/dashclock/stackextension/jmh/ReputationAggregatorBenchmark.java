@@ -0,0 +1,61 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import de.robbers.dashclock.stackextension.core.ReputationAggregator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation alone, on events that are already decoded, for different
+ * history sizes and numbers of displayed posts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReputationAggregatorBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int events;
+
+    @Param({"2", "10"})
+    public int posts;
+
+    private long[] mPostIds;
+    private int[] mChanges;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(events);
+        int distinctPosts = Math.max(1, events / 4);
+        mPostIds = new long[events];
+        mChanges = new int[events];
+        for (int i = 0; i < events; i++) {
+            mPostIds[i] = 18000000L + random.nextInt(distinctPosts);
+            mChanges[i] = random.nextInt(8) == 0 ? -2 : 10;
+        }
+    }
+
+    @Benchmark
+    public ReputationAggregator.Post[] aggregate() {
+        ReputationAggregator aggregator = new ReputationAggregator(posts);
+        for (int i = 0; i < mPostIds.length; i++) {
+            aggregator.onReputationChange(0, mPostIds[i], "up_votes", mChanges[i], "");
+        }
+        return aggregator.getTopPosts();
+    }
+}
@@ -0,0 +1,62 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import de.robbers.dashclock.stackextension.core.ReputationRollup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling the daily rollup from a month of events and reading all periods,
+ * in a time zone with DST.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReputationRollupBenchmark {
+    private static final long NOW = 1376570816000L;
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/Berlin");
+
+    @Param({"100", "1000", "10000"})
+    public int events;
+
+    private long[] mTimes;
+    private int[] mChanges;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(events);
+        mTimes = new long[events];
+        mChanges = new int[events];
+        for (int i = 0; i < events; i++) {
+            mTimes[i] = NOW - (long) (random.nextDouble() * 31 * 24 * 60 * 60 * 1000);
+            mChanges[i] = random.nextInt(8) == 0 ? -2 : 10;
+        }
+    }
+
+    @Benchmark
+    public int rollup() {
+        ReputationRollup rollup = new ReputationRollup(ZONE, Calendar.MONDAY, 31, NOW);
+        for (int i = 0; i < mTimes.length; i++) {
+            rollup.add(mTimes[i], mChanges[i]);
+        }
+        return rollup.getToday() + rollup.getYesterday() + rollup.getThisWeek()
+                + rollup.getThisMonth() + rollup.getLastDays(7);
+    }
+}
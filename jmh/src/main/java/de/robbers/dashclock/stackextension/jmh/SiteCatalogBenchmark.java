@@ -0,0 +1,58 @@
+package de.robbers.dashclock.stackextension.jmh;
+
+import de.robbers.dashclock.stackextension.core.CalendarUtils;
+import de.robbers.dashclock.stackextension.core.SiteCatalog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the bundled sites.json, site lookups, and the reputation window
+ * math that runs on every update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SiteCatalogBenchmark {
+
+    private byte[] mSites;
+    private SiteCatalog mCatalog;
+
+    @Setup
+    public void setUp() throws IOException {
+        mSites = Fixtures.load("sites.json");
+        mCatalog = parseCatalog();
+    }
+
+    @Benchmark
+    public SiteCatalog parseCatalog() throws IOException {
+        return SiteCatalog.parse(new InputStreamReader(new ByteArrayInputStream(mSites),
+                Fixtures.UTF_8));
+    }
+
+    @Benchmark
+    public String lookupUrl() {
+        return mCatalog.getUrlFromApiParameter("meta.superuser");
+    }
+
+    @Benchmark
+    public long reputationWindow() {
+        return CalendarUtils.getOneWeekAgo() + CalendarUtils.getTomorrow();
+    }
+}
@@ -0,0 +1,358 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.ApiErrorException;
+import de.robbers.dashclock.stackextension.core.ResponseReader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide HTTP client for the Stack Exchange API. Connections are pooled
+ * and kept alive between updates, so consecutive requests can skip the TCP and
+ * TLS handshakes.
+ */
+public class ApiClient {
+    private static final String TAG = "ApiClient";
+
+    public static final String API_URL = "https://api.stackexchange.com/2.1";
+    public static final String PREF_API_URL = "pref_api_url";
+
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 20 * 1000;
+    private static final long KEEP_ALIVE = 60 * 1000;
+    private static final int MAX_CONNECTIONS = 4;
+
+    private static ApiClient sInstance;
+    private static volatile String sApiUrl = API_URL;
+
+    private final DefaultHttpClient mHttpClient;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mNewConnections = new AtomicInteger();
+    private final AtomicInteger mReusedConnections = new AtomicInteger();
+
+    private final ResponseReader mReader = new ResponseReader(MAX_CONNECTIONS);
+
+    // DNS and connect time of the last request on the current thread, in ms;
+    // both stay 0 when a pooled connection was reused
+    private static final ThreadLocal<long[]> sConnectTimes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    public static synchronized ApiClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new ApiClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the base URL of all API requests, the Stack Exchange API unless
+     * another server (e.g. a local mock) is configured.
+     */
+    public static String getApiUrl() {
+        return sApiUrl;
+    }
+
+    /**
+     * Reads the configured API base URL from the preferences.
+     */
+    public static void loadApiUrl(Context context) {
+        String url = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(PREF_API_URL, null);
+        url = TextUtils.isEmpty(url) ? API_URL : url.trim();
+        // trailing slashes would double up with the request paths
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        if (!url.equals(sApiUrl)) {
+            Log.i(TAG, "API URL: " + url);
+            sApiUrl = url;
+        }
+    }
+
+    private ApiClient() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT);
+        ConnManagerParams.setTimeout(params, CONNECT_TIMEOUT);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+        ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry) {
+            @Override
+            protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemes) {
+                return new TimedConnectionOperator(schemes);
+            }
+        };
+        mHttpClient = new DefaultHttpClient(manager, params);
+        mHttpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy mDefault = new DefaultConnectionKeepAliveStrategy();
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // honor the server's Keep-Alive header, but never keep a socket forever
+                long duration = mDefault.getKeepAliveDuration(response, context);
+                return duration > 0 && duration < KEEP_ALIVE ? duration : KEEP_ALIVE;
+            }
+        });
+        mHttpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+                mRequests.incrementAndGet();
+                HttpConnection connection = (HttpConnection) context
+                        .getAttribute(ExecutionContext.HTTP_CONNECTION);
+                if (connection == null) {
+                    return;
+                }
+                // the metrics include the current request
+                if (connection.getMetrics().getRequestCount() > 1) {
+                    mReusedConnections.incrementAndGet();
+                } else {
+                    mNewConnections.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the request on the shared client. The caller has to consume or
+     * close the response entity, or abort the request, to hand the connection
+     * back to the pool.
+     */
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        long[] times = sConnectTimes.get();
+        times[0] = 0;
+        times[1] = 0;
+        return mHttpClient.execute(request);
+    }
+
+    /**
+     * Creates a compressed GET request for the API. Returns null if the URI is
+     * malformed.
+     */
+    public static HttpGet createGet(String uri) {
+        HttpGet get;
+        try {
+            get = new HttpGet(uri);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Malformed URI " + uri);
+            return null;
+        }
+        get.addHeader("Accept-Encoding", "gzip, deflate");
+        return get;
+    }
+
+    /**
+     * Executes one attempt of a request from {@link #createGet(String)} and
+     * returns the body, decoded as its Content-Encoding says. Only a 2xx
+     * response with items is returned; any other status or an error body
+     * fails with an {@link ApiErrorException}. The request may be aborted
+     * from another thread, which fails the attempt with an IOException. Timings and byte
+     * counts of a successful attempt are added to the cycle, if one is given.
+     */
+    public byte[] fetch(HttpGet get, Diagnostics.Cycle cycle) throws IOException {
+        Log.i(TAG, "URI: " + get.getURI());
+        HttpEntity entity = null;
+        try {
+            long start = System.nanoTime();
+            HttpResponse response = execute(get);
+            long headers = System.nanoTime();
+            int status = response.getStatusLine().getStatusCode();
+            if (cycle != null) {
+                long dns = getLastDnsMillis();
+                long connect = getLastConnectMillis();
+                cycle.record(Diagnostics.PHASE_DNS, dns);
+                cycle.record(Diagnostics.PHASE_CONNECT, connect);
+                cycle.record(Diagnostics.PHASE_FIRST_BYTE,
+                        Math.max(0, (headers - start) / 1000000 - dns - connect));
+            }
+
+            entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Response " + status + " without a body");
+            }
+            Header encoding = entity.getContentEncoding();
+            ResponseReader.Body body = mReader.decode(entity.getContent(),
+                    encoding != null ? encoding.getValue() : null);
+            if (cycle != null) {
+                cycle.recordSince(Diagnostics.PHASE_DOWNLOAD, headers);
+                cycle.recordRequest(body.wireLength, body.bytes.length);
+            }
+            return ResponseReader.check(status, body.bytes);
+        } catch (ApiErrorException e) {
+            // the body was read, so the connection can be reused
+            throw e;
+        } catch (IOException e) {
+            // also covers ClientProtocolException
+            get.abort();
+            throw e;
+        } finally {
+            consumeQuietly(entity);
+            Log.i(TAG, "Connections: " + getConnectionStats());
+        }
+    }
+
+    /**
+     * Downloads a plain resource like a site icon and returns its body, or null
+     * if the request failed.
+     */
+    public byte[] download(String url) {
+        Log.i(TAG, "URL: " + url);
+        HttpGet get;
+        try {
+            get = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Malformed URL " + url);
+            return null;
+        }
+        HttpEntity entity = null;
+        try {
+            HttpResponse response = execute(get);
+            entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK || entity == null) {
+                Log.w(TAG, "Download failed with status " + status);
+                return null;
+            }
+            return EntityUtils.toByteArray(entity);
+        } catch (ClientProtocolException e) {
+            get.abort();
+            e.printStackTrace();
+        } catch (IOException e) {
+            get.abort();
+            e.printStackTrace();
+        } finally {
+            consumeQuietly(entity);
+        }
+        return null;
+    }
+
+    private static void consumeQuietly(HttpEntity entity) {
+        if (entity == null) {
+            return;
+        }
+        try {
+            // releases the connection back to the pool
+            entity.consumeContent();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the time the last request of this thread spent resolving the
+     * host, or 0 if it reused a connection.
+     */
+    public long getLastDnsMillis() {
+        return sConnectTimes.get()[0];
+    }
+
+    /**
+     * Returns the time the last request of this thread spent on the TCP and
+     * TLS handshakes, or 0 if it reused a connection.
+     */
+    public long getLastConnectMillis() {
+        return sConnectTimes.get()[1];
+    }
+
+    public void closeIdleConnections() {
+        ClientConnectionManager manager = mHttpClient.getConnectionManager();
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+    }
+
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    public int getNewConnectionCount() {
+        return mNewConnections.get();
+    }
+
+    public int getReusedConnectionCount() {
+        return mReusedConnections.get();
+    }
+
+    public String getConnectionStats() {
+        return "requests=" + getRequestCount() + ", new connections=" + getNewConnectionCount()
+                + ", reused connections=" + getReusedConnectionCount();
+    }
+
+    /**
+     * Opens connections like the default operator, but measures name
+     * resolution and connecting separately. Connections are opened on the
+     * thread that executes the request.
+     */
+    private static class TimedConnectionOperator extends DefaultClientConnectionOperator {
+        public TimedConnectionOperator(SchemeRegistry schemes) {
+            super(schemes);
+        }
+
+        @Override
+        public void openConnection(OperatedClientConnection conn, HttpHost target,
+                InetAddress local, HttpContext context, HttpParams params) throws IOException {
+            long start = System.nanoTime();
+            // the socket factory resolves the host again, but then gets the
+            // address from the resolver cache
+            InetAddress.getAllByName(target.getHostName());
+            long resolved = System.nanoTime();
+            super.openConnection(conn, target, local, context, params);
+            long[] times = sConnectTimes.get();
+            times[0] = (resolved - start) / 1000000;
+            times[1] = (System.nanoTime() - resolved) / 1000000;
+        }
+    }
+}
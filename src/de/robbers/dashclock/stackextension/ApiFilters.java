@@ -0,0 +1,111 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Custom API filters, created once with /filters/create and remembered.
+ * Filters are immutable and not bound to a site, so a created filter stays
+ * valid on its server. The server and definition are the key, so changing
+ * either creates a new filter. Until a filter could be created, the built-in
+ * default filter is used.
+ */
+public class ApiFilters {
+    private static final String TAG = "ApiFilters";
+
+    public static final String FILTER_DEFAULT = "default";
+
+    // reputation events without title and link, the titles of the top posts
+    // are fetched separately
+    public static final String REPUTATION_EVENTS =
+            "base=default&exclude=reputation.title;reputation.link";
+    // only the user fields an update reads: ids, the total and the changes
+    // of the day, week and month, which tell whether the timeline changed
+    public static final String USER_SUMMARY = "base=none&include=.backoff;.has_more;.items;"
+            + ".quota_max;.quota_remaining;user.user_id;user.account_id;user.reputation;"
+            + "user.reputation_change_day;user.reputation_change_week;"
+            + "user.reputation_change_month";
+    // only the titles of posts, and the wrapper fields the governor reads
+    public static final String POST_TITLES = "base=none&include=.backoff;.has_more;.items;"
+            + ".quota_max;.quota_remaining;post.post_id;post.title";
+
+    private static final String PREFS_NAME = "filters";
+    private static final String ENDPOINT_FILTERS = "filters/create";
+    // a failed creation is not retried more often than this
+    private static final long RETRY_INTERVAL = 60 * 60 * 1000;
+
+    private static final RequestExecutor.Policy REQUEST_POLICY =
+            new RequestExecutor.Policy(10 * 1000, 1, false);
+
+    private static ApiFilters sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final Map<String, Long> mFailed = new HashMap<String, Long>();
+
+    public static synchronized ApiFilters getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ApiFilters(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ApiFilters(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the filter for the definition, creating it on the first call,
+     * or the default filter if it could not be created.
+     */
+    public synchronized String get(String definition, Diagnostics.Cycle cycle) {
+        String key = ApiClient.getApiUrl() + "|" + definition;
+        String filter = mPreferences.getString(key, null);
+        if (filter != null) {
+            return filter;
+        }
+        Long failed = mFailed.get(key);
+        if (failed != null && System.currentTimeMillis() - failed < RETRY_INTERVAL) {
+            return FILTER_DEFAULT;
+        }
+
+        filter = create(definition, cycle);
+        if (filter == null) {
+            Log.w(TAG, "Unable to create filter " + definition);
+            mFailed.put(key, System.currentTimeMillis());
+            return FILTER_DEFAULT;
+        }
+        Log.i(TAG, "Created filter " + filter + " for " + definition);
+        mPreferences.edit().putString(key, filter).apply();
+        return filter;
+    }
+
+    private String create(String definition, Diagnostics.Cycle cycle) {
+        QuotaGovernor governor = QuotaGovernor.getInstance();
+        if (!governor.acquire(ENDPOINT_FILTERS)) {
+            return null;
+        }
+        byte[] json = RequestExecutor.getInstance().execute(ENDPOINT_FILTERS,
+                ApiClient.getApiUrl() + "/filters/create?unsafe=false&" + definition,
+                REQUEST_POLICY, cycle);
+        if (json == null) {
+            return null;
+        }
+        try {
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            String filter = ApiParser.parseFilter(new Utf8Reader(json), wrapper);
+            governor.record(ENDPOINT_FILTERS, wrapper, System.currentTimeMillis());
+            return filter;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.HedgingExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Timing and traffic statistics of update cycles. Each cycle records how long
+ * its phases took, how many bytes went over the wire before and after
+ * decompression, how many requests were answered from the cache or failed,
+ * and how many were retried or hedged.
+ * The last cycles are kept in memory for percentiles and persisted as a small
+ * ring buffer, so the settings screen can show them after a restart.
+ */
+public class Diagnostics {
+    private static final String TAG = "Diagnostics";
+
+    public static final int PHASE_DNS = 0;
+    public static final int PHASE_CONNECT = 1;
+    public static final int PHASE_FIRST_BYTE = 2;
+    public static final int PHASE_DOWNLOAD = 3;
+    public static final int PHASE_PARSE = 4;
+    public static final int PHASE_PUBLISH = 5;
+    public static final int PHASE_TOTAL = 6;
+
+    private static final String[] PHASE_NAMES = {
+            "DNS", "Connect", "First byte", "Download and gzip", "Parse", "Publish", "Total"
+    };
+    private static final int PHASES = PHASE_NAMES.length;
+
+    private static final String FILE_NAME = "diagnostics";
+    private static final int FILE_VERSION = 2;
+    private static final int CAPACITY = 50;
+
+    private static Diagnostics sInstance;
+
+    private final File mFile;
+    private final Cycle[] mCycles = new Cycle[CAPACITY];
+    private int mNext;
+    private int mCount;
+
+    public static synchronized Diagnostics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new Diagnostics(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private Diagnostics(File file) {
+        mFile = file;
+        load();
+    }
+
+    public Cycle startCycle() {
+        return new Cycle(System.currentTimeMillis(), System.nanoTime());
+    }
+
+    public synchronized void finishCycle(Cycle cycle) {
+        cycle.finish();
+        mCycles[mNext] = cycle;
+        mNext = (mNext + 1) % CAPACITY;
+        mCount = Math.min(mCount + 1, CAPACITY);
+        Log.i(TAG, cycle.toString());
+        save();
+    }
+
+    /**
+     * Returns a human readable summary of the recorded cycles: median and 95th
+     * percentile per phase, traffic, cache hits and errors.
+     */
+    public synchronized String getSummary() {
+        if (mCount == 0) {
+            return "No updates recorded yet.";
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append("Last ").append(mCount).append(" updates, latest ")
+                .append(DateFormat.getDateTimeInstance().format(new Date(getLatest().timestamp)))
+                .append('\n');
+        long[] samples = new long[mCount];
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int i = 0; i < mCount; i++) {
+                samples[i] = mCycles[i].phases[phase];
+            }
+            Arrays.sort(samples);
+            summary.append(PHASE_NAMES[phase]).append(": p50 ")
+                    .append(percentile(samples, 50)).append(" ms, p95 ")
+                    .append(percentile(samples, 95)).append(" ms\n");
+        }
+
+        long compressed = 0;
+        long decompressed = 0;
+        int requests = 0;
+        int cacheHits = 0;
+        int errors = 0;
+        int retries = 0;
+        int hedges = 0;
+        int hedgeWins = 0;
+        for (int i = 0; i < mCount; i++) {
+            Cycle cycle = mCycles[i];
+            compressed += cycle.bytesCompressed;
+            decompressed += cycle.bytesDecompressed;
+            requests += cycle.requests;
+            cacheHits += cycle.cacheHits;
+            errors += cycle.errors;
+            retries += cycle.retries;
+            hedges += cycle.hedges;
+            hedgeWins += cycle.hedgeWins;
+        }
+        summary.append("Traffic per update: ").append(String.format("%.1f", compressed / 1024.0f / mCount))
+                .append(" KB (").append(String.format("%.1f", decompressed / 1024.0f / mCount))
+                .append(" KB decompressed)\n");
+        summary.append("Requests: ").append(requests).append(", cache hits: ").append(cacheHits)
+                .append(", errors: ").append(errors).append('\n');
+        summary.append("Retries: ").append(retries).append(", hedged: ").append(hedges)
+                .append(" (").append(hedgeWins).append(" won)");
+        return summary.toString();
+    }
+
+    private Cycle getLatest() {
+        return mCycles[(mNext - 1 + CAPACITY) % CAPACITY];
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = Math.min(in.readInt(), CAPACITY);
+            for (int i = 0; i < count; i++) {
+                mCycles[i] = Cycle.read(in);
+            }
+            mCount = count;
+            mNext = count % CAPACITY;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read diagnostics", e);
+            mCount = 0;
+            mNext = 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void save() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mCount);
+            // oldest first, so that loading restores the order
+            for (int i = 0; i < mCount; i++) {
+                int index = (mNext - mCount + i + CAPACITY) % CAPACITY;
+                mCycles[index].write(out);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write diagnostics", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Measurements of one update cycle. Requests of a cycle may run in
+     * parallel, so all recording methods are synchronized.
+     */
+    public static class Cycle implements HedgingExecutor.Listener {
+        final long timestamp;
+        final long[] phases = new long[PHASES];
+        long bytesCompressed;
+        long bytesDecompressed;
+        int requests;
+        int cacheHits;
+        int errors;
+        int retries;
+        int hedges;
+        // hedged requests that answered before the first one
+        int hedgeWins;
+
+        private final long mStartNanos;
+
+        private Cycle(long timestamp, long startNanos) {
+            this.timestamp = timestamp;
+            mStartNanos = startNanos;
+        }
+
+        /**
+         * Adds the time since startNanos (from System.nanoTime()) to a phase.
+         */
+        public void recordSince(int phase, long startNanos) {
+            record(phase, (System.nanoTime() - startNanos) / 1000000);
+        }
+
+        public synchronized void record(int phase, long millis) {
+            phases[phase] += millis;
+        }
+
+        public synchronized void recordRequest(long compressed, long decompressed) {
+            requests++;
+            bytesCompressed += compressed;
+            bytesDecompressed += decompressed;
+        }
+
+        public synchronized void recordCacheHit() {
+            cacheHits++;
+        }
+
+        public synchronized void recordError() {
+            errors++;
+        }
+
+        public synchronized void recordRetry() {
+            retries++;
+        }
+
+        public synchronized void recordHedge(boolean won) {
+            hedges++;
+            if (won) {
+                hedgeWins++;
+            }
+        }
+
+        private synchronized void finish() {
+            phases[PHASE_TOTAL] = (System.nanoTime() - mStartNanos) / 1000000;
+        }
+
+        private static Cycle read(DataInputStream in) throws IOException {
+            Cycle cycle = new Cycle(in.readLong(), 0);
+            for (int phase = 0; phase < PHASES; phase++) {
+                cycle.phases[phase] = in.readInt();
+            }
+            cycle.bytesCompressed = in.readInt();
+            cycle.bytesDecompressed = in.readInt();
+            cycle.requests = in.readShort();
+            cycle.cacheHits = in.readShort();
+            cycle.errors = in.readShort();
+            cycle.retries = in.readShort();
+            cycle.hedges = in.readShort();
+            cycle.hedgeWins = in.readShort();
+            return cycle;
+        }
+
+        private synchronized void write(DataOutputStream out) throws IOException {
+            out.writeLong(timestamp);
+            for (int phase = 0; phase < PHASES; phase++) {
+                out.writeInt((int) Math.min(Integer.MAX_VALUE, phases[phase]));
+            }
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, bytesCompressed));
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, bytesDecompressed));
+            out.writeShort(Math.min(Short.MAX_VALUE, requests));
+            out.writeShort(Math.min(Short.MAX_VALUE, cacheHits));
+            out.writeShort(Math.min(Short.MAX_VALUE, errors));
+            out.writeShort(Math.min(Short.MAX_VALUE, retries));
+            out.writeShort(Math.min(Short.MAX_VALUE, hedges));
+            out.writeShort(Math.min(Short.MAX_VALUE, hedgeWins));
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder("Update:");
+            for (int phase = 0; phase < PHASES; phase++) {
+                builder.append(' ').append(PHASE_NAMES[phase]).append('=').append(phases[phase]).append("ms");
+            }
+            builder.append(", bytes=").append(bytesCompressed).append('/').append(bytesDecompressed)
+                    .append(", requests=").append(requests)
+                    .append(", cache hits=").append(cacheHits)
+                    .append(", errors=").append(errors)
+                    .append(", retries=").append(retries)
+                    .append(", hedges=").append(hedges).append('/').append(hedgeWins);
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.robbers.dashclock.stackextension;
+
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.HedgingExecutor;
+import de.robbers.dashclock.stackextension.core.RequestBudget;
+
+/**
+ * Process-wide gate for API requests. The backoffs, the quota and the token
+ * bucket that paces the requests are kept in a {@link RequestBudget}.
+ */
+public class QuotaGovernor implements HedgingExecutor.Gate {
+    private static final String TAG = "QuotaGovernor";
+
+    private static QuotaGovernor sInstance;
+
+    private final RequestBudget mBudget = new RequestBudget(System.currentTimeMillis());
+
+    public static synchronized QuotaGovernor getInstance() {
+        if (sInstance == null) {
+            sInstance = new QuotaGovernor();
+        }
+        return sInstance;
+    }
+
+    private QuotaGovernor() {
+    }
+
+    /**
+     * Records the wrapper fields of a response to the endpoint that was fetched
+     * at the given time. Replayed (cached) responses are recognized by their
+     * timestamp and do not overwrite newer values.
+     */
+    public void record(String endpoint, ApiParser.Wrapper wrapper, long timestamp) {
+        if (mBudget.record(endpoint, wrapper, timestamp)) {
+            Log.w(TAG, "Backing off " + endpoint + " for " + wrapper.backoff + "s");
+        }
+    }
+
+    /**
+     * Returns true and takes one request from the budget if the endpoint may
+     * be requested now.
+     */
+    @Override
+    public boolean acquire(String endpoint) {
+        if (!mBudget.acquire(endpoint, System.currentTimeMillis())) {
+            Log.i(TAG, "No request to " + endpoint + " allowed, " + getBudget());
+            return false;
+        }
+        return true;
+    }
+
+    public long getBackoffRemaining(String endpoint) {
+        return mBudget.getBackoffRemaining(endpoint, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the last known remaining quota of the day, or -1 if unknown.
+     */
+    public int getQuotaRemaining() {
+        return mBudget.getQuotaRemaining(System.currentTimeMillis());
+    }
+
+    public int getQuotaMax() {
+        return mBudget.getQuotaMax();
+    }
+
+    /**
+     * Returns the number of requests that may be made right now.
+     */
+    public int getAvailableRequests() {
+        return mBudget.getAvailableRequests(System.currentTimeMillis());
+    }
+
+    public String getBudget() {
+        return mBudget.toString(System.currentTimeMillis());
+    }
+}
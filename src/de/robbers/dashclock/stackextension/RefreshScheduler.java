@@ -0,0 +1,129 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.RefreshPolicy;
+
+/**
+ * Decides whether an update trigger should hit the network. Without
+ * connectivity nothing is fetched at all; otherwise the {@link RefreshPolicy}
+ * decides, with its state kept in the preferences.
+ */
+public class RefreshScheduler {
+    private static final String TAG = "RefreshScheduler";
+
+    private static final String PREFS_NAME = "scheduler";
+    private static final String KEY_SIGNATURE = "signature";
+    private static final String KEY_LAST_FETCH = "last_fetch";
+    private static final String KEY_LAST_CHANGE = "last_change";
+    private static final String KEY_MEAN_INTERVAL = "mean_interval";
+    private static final String KEY_FAILED_SIGNATURE = "failed_signature";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_LAST_FAILURE = "last_failure";
+
+    private final ConnectivityManager mConnectivityManager;
+    private final SharedPreferences mPreferences;
+    private final RefreshPolicy mPolicy = new RefreshPolicy();
+    private boolean mPushConnected;
+
+    public RefreshScheduler(Context context) {
+        mConnectivityManager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPolicy.signature = mPreferences.getString(KEY_SIGNATURE, null);
+        mPolicy.lastFetch = mPreferences.getLong(KEY_LAST_FETCH, 0);
+        mPolicy.lastChange = mPreferences.getLong(KEY_LAST_CHANGE, 0);
+        mPolicy.meanInterval = mPreferences.getLong(KEY_MEAN_INTERVAL,
+                RefreshPolicy.DEFAULT_MEAN_INTERVAL);
+        mPolicy.failedSignature = mPreferences.getString(KEY_FAILED_SIGNATURE, null);
+        mPolicy.failures = mPreferences.getInt(KEY_FAILURES, 0);
+        mPolicy.lastFailure = mPreferences.getLong(KEY_LAST_FAILURE, 0);
+    }
+
+    private void save() {
+        mPreferences.edit()
+                .putString(KEY_SIGNATURE, mPolicy.signature)
+                .putLong(KEY_LAST_FETCH, mPolicy.lastFetch)
+                .putLong(KEY_LAST_CHANGE, mPolicy.lastChange)
+                .putLong(KEY_MEAN_INTERVAL, mPolicy.meanInterval)
+                .putString(KEY_FAILED_SIGNATURE, mPolicy.failedSignature)
+                .putInt(KEY_FAILURES, mPolicy.failures)
+                .putLong(KEY_LAST_FAILURE, mPolicy.lastFailure)
+                .apply();
+    }
+
+    public boolean isOnline() {
+        NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    public boolean isMetered() {
+        return mConnectivityManager.isActiveNetworkMetered();
+    }
+
+    public void setPushConnected(boolean connected) {
+        mPushConnected = connected;
+    }
+
+    /**
+     * Returns the minimum time between two fetches, in milliseconds.
+     */
+    public long getInterval() {
+        return mPolicy.getInterval(System.currentTimeMillis(), isMetered(), mPushConnected);
+    }
+
+    /**
+     * Returns true if a trigger for the given data (site, user, display...)
+     * should be answered with a fetch. Forced triggers skip the interval and
+     * the retry backoff.
+     */
+    public boolean shouldFetch(String signature, boolean forced) {
+        if (!isOnline()) {
+            Log.i(TAG, "Offline, skipping fetch");
+            return false;
+        }
+        if (forced) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long retry = mPolicy.getRetryRemaining(signature, now);
+        if (retry > 0) {
+            Log.i(TAG, mPolicy.failures + " failed fetches, retrying in " + retry / 1000 + "s");
+            return false;
+        }
+        long wait = mPolicy.getIntervalRemaining(signature, now, isMetered(), mPushConnected);
+        if (wait > 0) {
+            Log.i(TAG, "Next fetch in " + wait / 1000 + "s");
+            return false;
+        }
+        return true;
+    }
+
+    public void onFetched(String signature) {
+        mPolicy.onFetched(signature, System.currentTimeMillis());
+        save();
+    }
+
+    /**
+     * Records a fetch that brought no result. The last successful fetch stays
+     * as it was, so the data is refetched as soon as the backoff allows.
+     */
+    public void onFetchFailed(String signature) {
+        mPolicy.onFetchFailed(signature, System.currentTimeMillis());
+        save();
+    }
+
+    /**
+     * Feeds the date of the newest reputation change (in milliseconds) into the
+     * learned change interval.
+     */
+    public void onReputationChanged(long date) {
+        if (mPolicy.onReputationChanged(date)) {
+            save();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.CalendarUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local history of reputation events per site and user. Events are merged in
+ * as they are fetched, refetched events are ignored, and the sync state remembers
+ * which time range is already covered so that the next request only has to
+ * ask for events since the last one seen. Decoded post titles are cached per
+ * site, since they rarely change and only a few are displayed. All data comes
+ * from one API server; it is dropped when the server changes.
+ */
+public class ReputationStore extends SQLiteOpenHelper {
+    private static final String TAG = "ReputationStore";
+
+    private static final String DATABASE_NAME = "reputation.db";
+    private static final int DATABASE_VERSION = 5;
+
+    // events older than this are pruned, in seconds
+    private static final long RETENTION = 31 * CalendarUtils.ONE_DAY / 1000;
+
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_SYNC = "sync";
+    private static final String TABLE_TITLES = "titles";
+
+    private static final String COLUMN_SITE = "site";
+    private static final String COLUMN_USER_ID = "user_id";
+    private static final String COLUMN_ON_DATE = "on_date";
+    private static final String COLUMN_POST_ID = "post_id";
+    private static final String COLUMN_VOTE_TYPE = "vote_type";
+    private static final String COLUMN_REPUTATION_CHANGE = "reputation_change";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_OCCURRENCE = "occurrence";
+    private static final String COLUMN_SYNCED_FROM = "synced_from";
+    private static final String COLUMN_SYNCED_UNTIL = "synced_until";
+    private static final String COLUMN_REPUTATION = "reputation";
+    private static final String COLUMN_CHANGE_DAY = "reputation_change_day";
+    private static final String COLUMN_CHANGE_WEEK = "reputation_change_week";
+    private static final String COLUMN_CHANGE_MONTH = "reputation_change_month";
+    private static final String COLUMN_FETCHED = "fetched";
+
+    private static final String PREFS_NAME = "reputation_store";
+    private static final String KEY_API_URL = "api_url";
+
+    private static final String WHERE_USER = COLUMN_SITE + " = ? AND " + COLUMN_USER_ID + " = ?";
+
+    private static ReputationStore sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    public static synchronized ReputationStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ReputationStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ReputationStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Drops all events, sync states and titles unless they were fetched from
+     * the given API server. Returns true if data was dropped. Data of a mock
+     * server must not be shown for the real API, or the other way round.
+     */
+    public synchronized boolean setApiUrl(String apiUrl) {
+        String stored = mPreferences.getString(KEY_API_URL, null);
+        if (apiUrl.equals(stored)) {
+            return false;
+        }
+        Log.i(TAG, "API server changed from " + stored + ", clearing the store");
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_EVENTS, null, null);
+            db.delete(TABLE_SYNC, null, null);
+            db.delete(TABLE_TITLES, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mPreferences.edit().putString(KEY_API_URL, apiUrl).apply();
+        return true;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " ("
+                + COLUMN_SITE + " TEXT NOT NULL, "
+                + COLUMN_USER_ID + " TEXT NOT NULL, "
+                + COLUMN_ON_DATE + " INTEGER NOT NULL, "
+                + COLUMN_POST_ID + " INTEGER NOT NULL, "
+                + COLUMN_VOTE_TYPE + " TEXT NOT NULL, "
+                + COLUMN_REPUTATION_CHANGE + " INTEGER NOT NULL, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_OCCURRENCE + " INTEGER NOT NULL, "
+                + "UNIQUE (" + COLUMN_SITE + ", " + COLUMN_USER_ID + ", " + COLUMN_ON_DATE + ", "
+                + COLUMN_POST_ID + ", " + COLUMN_VOTE_TYPE + ", " + COLUMN_REPUTATION_CHANGE
+                + ", " + COLUMN_OCCURRENCE + ") ON CONFLICT IGNORE)");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC + " ("
+                + COLUMN_SITE + " TEXT NOT NULL, "
+                + COLUMN_USER_ID + " TEXT NOT NULL, "
+                + COLUMN_SYNCED_FROM + " INTEGER NOT NULL, "
+                + COLUMN_SYNCED_UNTIL + " INTEGER NOT NULL, "
+                + COLUMN_REPUTATION + " INTEGER NOT NULL DEFAULT -1, "
+                + COLUMN_CHANGE_DAY + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CHANGE_WEEK + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CHANGE_MONTH + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + COLUMN_SITE + ", " + COLUMN_USER_ID + ") ON CONFLICT REPLACE)");
+        db.execSQL("CREATE TABLE " + TABLE_TITLES + " ("
+                + COLUMN_SITE + " TEXT NOT NULL, "
+                + COLUMN_POST_ID + " INTEGER NOT NULL, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_FETCHED + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_SITE + ", " + COLUMN_POST_ID + ") ON CONFLICT REPLACE)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // the store only caches API data, it can always be fetched again
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TITLES);
+        onCreate(db);
+    }
+
+    public static class SyncState {
+        public final long from;
+        public final long until;
+        // total reputation of the user when the range was synced, or -1
+        public final int reputation;
+        public final int changeDay;
+        public final int changeWeek;
+        public final int changeMonth;
+
+        SyncState(long from, long until, int reputation, int changeDay, int changeWeek,
+                int changeMonth) {
+            this.from = from;
+            this.until = until;
+            this.reputation = reputation;
+            this.changeDay = changeDay;
+            this.changeWeek = changeWeek;
+            this.changeMonth = changeMonth;
+        }
+
+        public boolean covers(long date) {
+            return from <= date && date <= until;
+        }
+
+        /**
+         * Returns true if the user looks the same as when the range was
+         * synced. A vote and its undo leave the total as it was, but not
+         * necessarily the changes of the periods.
+         */
+        public boolean matches(ApiParser.User user) {
+            return reputation >= 0 && reputation == user.reputation
+                    && changeDay == user.reputationChangeDay
+                    && changeWeek == user.reputationChangeWeek
+                    && changeMonth == user.reputationChangeMonth;
+        }
+    }
+
+    /**
+     * Returns the range of event dates (in seconds) that has been synced for
+     * the user, or null if nothing has been synced yet.
+     */
+    public SyncState getSyncState(String site, String userId) {
+        Cursor cursor = getReadableDatabase().query(TABLE_SYNC,
+                new String[]{COLUMN_SYNCED_FROM, COLUMN_SYNCED_UNTIL, COLUMN_REPUTATION,
+                        COLUMN_CHANGE_DAY, COLUMN_CHANGE_WEEK, COLUMN_CHANGE_MONTH},
+                WHERE_USER, new String[]{site, userId}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new SyncState(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2),
+                    cursor.getInt(3), cursor.getInt(4), cursor.getInt(5));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Starts merging a fetched page of events. The returned sync has to be
+     * committed or aborted.
+     */
+    public Sync beginSync(String site, String userId) {
+        return new Sync(getWritableDatabase(), site, userId);
+    }
+
+    /**
+     * Records that all events of the user between the given dates (in seconds)
+     * are in the store, and the user's reputation at that time, if known.
+     */
+    public void setSyncState(String site, String userId, long from, long until,
+            ApiParser.User user) {
+        long cutoff = System.currentTimeMillis() / 1000 - RETENTION;
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SITE, site);
+        values.put(COLUMN_USER_ID, userId);
+        values.put(COLUMN_SYNCED_FROM, Math.max(from, cutoff));
+        values.put(COLUMN_SYNCED_UNTIL, until);
+        if (user != null) {
+            values.put(COLUMN_REPUTATION, user.reputation);
+            values.put(COLUMN_CHANGE_DAY, user.reputationChangeDay);
+            values.put(COLUMN_CHANGE_WEEK, user.reputationChangeWeek);
+            values.put(COLUMN_CHANGE_MONTH, user.reputationChangeMonth);
+        }
+        getWritableDatabase().insert(TABLE_SYNC, null, values);
+    }
+
+    /**
+     * Feeds all events of the user since the given date (in seconds) to the
+     * handler, newest first.
+     */
+    public void query(String site, String userId, long from, ApiParser.ReputationHandler handler) {
+        Cursor cursor = getReadableDatabase().query(TABLE_EVENTS,
+                new String[]{COLUMN_ON_DATE, COLUMN_POST_ID, COLUMN_VOTE_TYPE,
+                        COLUMN_REPUTATION_CHANGE, COLUMN_TITLE},
+                WHERE_USER + " AND " + COLUMN_ON_DATE + " >= ?",
+                new String[]{site, userId, String.valueOf(from)},
+                null, null, COLUMN_ON_DATE + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                handler.onReputationChange(cursor.getLong(0), cursor.getLong(1),
+                        cursor.getString(2), cursor.getInt(3), cursor.getString(4));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the cached titles of the given posts, by post id. Posts without
+     * a cached title are missing from the result.
+     */
+    public Map<Long, String> getTitles(String site, long[] postIds) {
+        Map<Long, String> titles = new HashMap<Long, String>();
+        if (postIds.length == 0) {
+            return titles;
+        }
+        StringBuilder where = new StringBuilder(COLUMN_SITE + " = ? AND " + COLUMN_POST_ID + " IN (");
+        String[] args = new String[postIds.length + 1];
+        args[0] = site;
+        for (int i = 0; i < postIds.length; i++) {
+            where.append(i == 0 ? "?" : ", ?");
+            args[i + 1] = String.valueOf(postIds[i]);
+        }
+        where.append(')');
+        Cursor cursor = getReadableDatabase().query(TABLE_TITLES,
+                new String[]{COLUMN_POST_ID, COLUMN_TITLE}, where.toString(), args,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return titles;
+    }
+
+    /**
+     * Caches decoded post titles and drops titles that have not been fetched
+     * within the retention period, so renamed posts are picked up eventually.
+     */
+    public void putTitles(String site, Map<Long, String> titles) {
+        long now = System.currentTimeMillis() / 1000;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<Long, String> title : titles.entrySet()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_SITE, site);
+                values.put(COLUMN_POST_ID, title.getKey());
+                values.put(COLUMN_TITLE, title.getValue());
+                values.put(COLUMN_FETCHED, now);
+                db.insert(TABLE_TITLES, null, values);
+            }
+            db.delete(TABLE_TITLES, COLUMN_FETCHED + " < ?",
+                    new String[]{String.valueOf(now - RETENTION)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public class Sync implements ApiParser.ReputationHandler {
+        private final SQLiteDatabase mDatabase;
+        private final SQLiteStatement mInsert;
+        private final String mSite;
+        private final String mUserId;
+        private long mLastSeen;
+        private long mOldestSeen = Long.MAX_VALUE;
+        private int mCount;
+        // how often each event has been seen on this page; events that are
+        // alike, such as two upvotes on a post within a second, are told
+        // apart by it, while a refetch of the page numbers them the same way
+        private final Map<String, Integer> mOccurrences = new HashMap<String, Integer>();
+
+        private Sync(SQLiteDatabase database, String site, String userId) {
+            mDatabase = database;
+            mSite = site;
+            mUserId = userId;
+            mDatabase.beginTransaction();
+            mInsert = mDatabase.compileStatement("INSERT INTO " + TABLE_EVENTS + " ("
+                    + COLUMN_SITE + ", " + COLUMN_USER_ID + ", " + COLUMN_ON_DATE + ", "
+                    + COLUMN_POST_ID + ", " + COLUMN_VOTE_TYPE + ", "
+                    + COLUMN_REPUTATION_CHANGE + ", " + COLUMN_TITLE + ", " + COLUMN_OCCURRENCE
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+
+        @Override
+        public void onReputationChange(long onDate, long postId, String voteType,
+                int reputationChange, String title) {
+            String event = onDate + "|" + postId + "|" + voteType + "|" + reputationChange;
+            Integer occurrence = mOccurrences.get(event);
+            occurrence = occurrence == null ? 0 : occurrence + 1;
+            mOccurrences.put(event, occurrence);
+
+            mInsert.bindString(1, mSite);
+            mInsert.bindString(2, mUserId);
+            mInsert.bindLong(3, onDate);
+            mInsert.bindLong(4, postId);
+            mInsert.bindString(5, voteType);
+            mInsert.bindLong(6, reputationChange);
+            mInsert.bindString(7, title);
+            mInsert.bindLong(8, occurrence);
+            mInsert.executeInsert();
+            mLastSeen = Math.max(mLastSeen, onDate);
+            mOldestSeen = Math.min(mOldestSeen, onDate);
+            mCount++;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the date of the newest event seen, in seconds, or 0.
+         */
+        public long getLastSeen() {
+            return mLastSeen;
+        }
+
+        /**
+         * Returns the date of the oldest event seen, in seconds, or
+         * Long.MAX_VALUE.
+         */
+        public long getOldestSeen() {
+            return mOldestSeen;
+        }
+
+        /**
+         * Stores the events and prunes those past the retention period.
+         */
+        public void commit() {
+            try {
+                long cutoff = System.currentTimeMillis() / 1000 - RETENTION;
+                mDatabase.delete(TABLE_EVENTS, COLUMN_ON_DATE + " < ?",
+                        new String[]{String.valueOf(cutoff)});
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                finish();
+            }
+        }
+
+        public void abort() {
+            finish();
+        }
+
+        private void finish() {
+            mInsert.close();
+            mDatabase.endTransaction();
+        }
+    }
+}
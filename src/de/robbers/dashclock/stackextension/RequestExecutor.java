@@ -0,0 +1,66 @@
+package de.robbers.dashclock.stackextension;
+
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.HedgingExecutor;
+
+import org.apache.http.client.methods.HttpGet;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide executor of API GETs on the shared {@link ApiClient}, with the
+ * retries and hedges of a {@link HedgingExecutor}. Retries and hedges take
+ * from the {@link QuotaGovernor} budget like any other request.
+ */
+public class RequestExecutor extends HedgingExecutor {
+    private static final String TAG = "RequestExecutor";
+
+    private static RequestExecutor sInstance;
+
+    public static synchronized RequestExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new RequestExecutor();
+        }
+        return sInstance;
+    }
+
+    private RequestExecutor() {
+        super(Executors.newCachedThreadPool(), QuotaGovernor.getInstance());
+    }
+
+    /**
+     * Returns the decompressed body of the request, or null if it failed
+     * within the budget or the calling thread was interrupted. Timings and
+     * byte counts are added to the cycle, if one is given.
+     */
+    public byte[] execute(String endpoint, String uri, Policy policy,
+            final Diagnostics.Cycle cycle) {
+        return execute(endpoint, uri, policy, new Transport() {
+            @Override
+            public Attempt open(String uri) {
+                final HttpGet get = ApiClient.createGet(uri);
+                if (get == null) {
+                    return null;
+                }
+                return new Attempt() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return ApiClient.getInstance().fetch(get, cycle);
+                    }
+
+                    @Override
+                    public void abort() {
+                        get.abort();
+                    }
+                };
+            }
+        }, cycle);
+    }
+
+    @Override
+    protected void log(String message) {
+        Log.i(TAG, message);
+    }
+}
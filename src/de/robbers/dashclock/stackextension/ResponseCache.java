@@ -0,0 +1,41 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.FileResponseCache;
+
+import java.io.File;
+
+/**
+ * Process-wide response cache in the cache directory. Entries are keyed by API
+ * server, site, user ID, endpoint and filter.
+ */
+public class ResponseCache extends FileResponseCache {
+    private static final String TAG = "ResponseCache";
+
+    private static final String DIRECTORY = "responses";
+
+    private static ResponseCache sInstance;
+
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResponseCache(new File(context.getCacheDir(), DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    public static String buildKey(String site, String userId, String endpoint, String filter) {
+        // responses of a mock server must not be served for the real API
+        return ApiClient.getApiUrl() + "|" + site + "|" + userId + "|" + endpoint + "|" + filter;
+    }
+
+    private ResponseCache(File directory) {
+        super(directory);
+    }
+
+    @Override
+    protected void log(String message) {
+        Log.w(TAG, message);
+    }
+}
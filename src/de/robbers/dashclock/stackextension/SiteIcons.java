@@ -0,0 +1,212 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Per-site icons, downloaded from the icon URL of the site metadata and scaled
+ * to the extension icon size. The icons are PNG files in a bounded directory,
+ * served to DashClock by {@link IconProvider}. An in-memory LRU index of the
+ * files answers lookups without touching the disk; its eviction order decides
+ * which file is deleted when the directory is full. Missing icons are fetched
+ * in the background, and the caller falls back to a bundled drawable until
+ * they are there.
+ */
+public class SiteIcons {
+    private static final String TAG = "SiteIcons";
+
+    private static final String DIRECTORY = "icons";
+    private static final String EXTENSION = ".png";
+    private static final int MAX_ICONS = 64;
+
+    private static SiteIcons sInstance;
+
+    private final File mDirectory;
+    private final int mSize;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // access ordered, the eldest entry is the least recently used icon
+    private final Map<String, Uri> mIcons = new LinkedHashMap<String, Uri>(MAX_ICONS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Uri> eldest) {
+            if (size() <= MAX_ICONS) {
+                return false;
+            }
+            if (!getFile(mDirectory, eldest.getKey()).delete()) {
+                Log.w(TAG, "Unable to delete icon " + eldest.getKey());
+            }
+            return true;
+        }
+    };
+    // requested or failed in this process, not retried until the next start
+    private final Set<String> mRequested = new HashSet<String>();
+
+    public static synchronized SiteIcons getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SiteIcons(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SiteIcons(Context context) {
+        mDirectory = getDirectory(context);
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.extension_icon_size);
+        loadIndex();
+    }
+
+    static File getDirectory(Context context) {
+        // not the cache directory: the system may clear it behind the index
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Returns the icon file of a site, or null if the name is not a plain API
+     * site parameter.
+     */
+    static File getFile(File directory, String site) {
+        if (site == null || site.length() == 0 || !site.matches("[a-z0-9.\\-]+")
+                || site.contains("..")) {
+            return null;
+        }
+        return new File(directory, site + EXTENSION);
+    }
+
+    private synchronized void loadIndex() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // oldest first, so that they are evicted first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(EXTENSION)) {
+                String site = name.substring(0, name.length() - EXTENSION.length());
+                mIcons.put(site, IconProvider.buildUri(site));
+            }
+        }
+    }
+
+    /**
+     * Returns the content URI of the site's icon, or null if it is not cached
+     * yet. A missing icon is fetched in the background if iconUrl is known.
+     */
+    public synchronized Uri getIconUri(String site, String iconUrl) {
+        Uri uri = mIcons.get(site);
+        if (uri != null) {
+            return uri;
+        }
+        if (iconUrl != null && mRequested.add(site) && getFile(mDirectory, site) != null) {
+            fetch(site, iconUrl);
+        }
+        return null;
+    }
+
+    private void fetch(final String site, final String iconUrl) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] image = ApiClient.getInstance().download(iconUrl);
+                if (image == null) {
+                    return;
+                }
+                Bitmap icon = decode(image, mSize);
+                if (icon == null) {
+                    Log.w(TAG, "Unable to decode icon of " + site);
+                    return;
+                }
+                if (store(site, icon)) {
+                    synchronized (SiteIcons.this) {
+                        mIcons.put(site, IconProvider.buildUri(site));
+                    }
+                }
+                icon.recycle();
+            }
+        });
+    }
+
+    /**
+     * Decodes an image at the smallest power of two sample size that is still
+     * at least size pixels wide and high, then scales it to exactly size.
+     */
+    private static Bitmap decode(byte[] image, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+        if (bitmap.getWidth() == size && bitmap.getHeight() == size) {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private boolean store(String site, Bitmap icon) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create icon directory " + mDirectory);
+            return false;
+        }
+        File file = getFile(mDirectory, site);
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            if (!icon.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                return false;
+            }
+            out.close();
+            out = null;
+            return temp.renameTo(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write icon of " + site, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -1,133 +1,275 @@
-
-package de.robbers.dashclock.stackextension;
-
-import android.content.Context;
-import android.content.res.AssetManager;
-import android.text.Html;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
-public class Sites {
-    private Context mContext;
-    private JSONArray mSites;
-
-    public Sites(Context context) {
-        mContext = context;
-        loadSites();
-    }
-
-    private void loadSites() {
-        AssetManager assetManager = mContext.getAssets();
-        String json = null;
-
-        try {
-            InputStream inputStream = assetManager.open("sites.json");
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            StringBuilder total = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                total.append(line);
-            }
-            json = total.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            mSites = new JSONArray(json);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public CharSequence[] getNames() {
-        CharSequence[] list = new CharSequence[mSites.length()];
-        for (int i = 0; i < mSites.length(); i++) {
-            try {
-                JSONObject site = mSites.getJSONObject(i);
-                list[i] = Html.fromHtml(site.getString("name"));
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return list;
-    }
-
-    public CharSequence[] getApiParameters() {
-        CharSequence[] list = new CharSequence[mSites.length()];
-        for (int i = 0; i < mSites.length(); i++) {
-            try {
-                JSONObject site = mSites.getJSONObject(i);
-                list[i] = site.getString("api_site_parameter");
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return list;
-    }
-
-    public CharSequence[] getUrls() {
-        CharSequence[] list = new CharSequence[mSites.length()];
-        for (int i = 0; i < mSites.length(); i++) {
-            try {
-                JSONObject site = mSites.getJSONObject(i);
-                list[i] = site.getString("site_url");
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return list;
-    }
-
-    public String getUrlFromApiParameter(String apiParameter) {
-        for (int i = 0; i < mSites.length(); i++) {
-            try {
-                JSONObject site = mSites.getJSONObject(i);
-                if (site.getString("api_site_parameter").equals(apiParameter)) {
-                    return site.getString("site_url");
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return null;
-    }
-
-    public String getNameFromApiParameter(String apiParameter) {
-        for (int i = 0; i < mSites.length(); i++) {
-            try {
-                JSONObject site = mSites.getJSONObject(i);
-                if (site.getString("api_site_parameter").equals(apiParameter)) {
-                    return site.getString("name");
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return null;
-    }
-
-    public int getIcon(String apiParameter) {
-        if (apiParameter.equals("stackoverflow")) {
-            return R.drawable.ic_stackoverflow;
-        } else if (apiParameter.equals("serverfault")) {
-            return R.drawable.ic_serverfault;
-        } else if (apiParameter.equals("superuser")) {
-            return R.drawable.ic_superuser;
-        } else if (apiParameter.equals("askubuntu")) {
-            return R.drawable.ic_askubuntu;
-        } else if (apiParameter.equals("meta.stackoverflow")) {
-            return R.drawable.ic_stackoverflow;
-        } else {
-            return R.drawable.ic_stackexchange;
-        }
-    }
-}
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.text.Html;
+import android.text.TextUtils;
+import android.util.Log;
+
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.CalendarUtils;
+import de.robbers.dashclock.stackextension.core.SiteCatalog;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide catalog of the Stack Exchange sites. It is read from a binary
+ * snapshot in the files directory, or from the bundled asset if there is none
+ * yet, and refreshed in the background from the /sites endpoint once the
+ * snapshot is older than the configured age. The HTML-decoded display names
+ * are only built the first time they are needed.
+ */
+public class Sites {
+    private static final String TAG = "Sites";
+
+    public static final long DEFAULT_MAX_AGE = 7 * CalendarUtils.ONE_DAY;
+
+    private static final String SNAPSHOT_FILE = "sites";
+    private static final String ENDPOINT_SITES = "sites";
+    private static final int PAGE_SIZE = 100;
+    // the network has a few hundred sites including metas
+    private static final int MAX_PAGES = 10;
+    // nobody waits for the background refresh, so it may retry longer, but
+    // does not need hedging
+    private static final RequestExecutor.Policy REQUEST_POLICY =
+            new RequestExecutor.Policy(60 * 1000, 3, false);
+
+    private static Sites sInstance;
+
+    private final File mSnapshot;
+
+    private SiteCatalog mCatalog;
+    // when the catalog was last fetched completely, 0 for the bundled asset
+    private long mRefreshed;
+    private boolean mRefreshing;
+
+    private CharSequence[] mDisplayNames;
+
+    public static synchronized Sites getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new Sites(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private Sites(Context context) {
+        mSnapshot = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        if (!readSnapshot()) {
+            mCatalog = loadSites(context);
+            mRefreshed = 0;
+        }
+    }
+
+    private static SiteCatalog loadSites(Context context) {
+        try {
+            return SiteCatalog.parse(new InputStreamReader(
+                    context.getAssets().open("sites.json"), "UTF-8"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return SiteCatalog.empty();
+        }
+    }
+
+    /**
+     * Returns the refresh age configured in the preferences.
+     */
+    public static long getMaxAge(Context context) {
+        String maxAge = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(StackExtension.PREF_SITES_MAX_AGE, null);
+        if (!TextUtils.isEmpty(maxAge)) {
+            try {
+                return Long.parseLong(maxAge) * CalendarUtils.ONE_DAY;
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        return DEFAULT_MAX_AGE;
+    }
+
+    /**
+     * Starts a background refresh from the API if the catalog is older than
+     * maxAge. Returns immediately; the new catalog is used once it is there.
+     */
+    public synchronized void refreshIfStale(long maxAge) {
+        if (mRefreshing || System.currentTimeMillis() - mRefreshed < maxAge) {
+            return;
+        }
+        mRefreshing = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } finally {
+                    synchronized (Sites.this) {
+                        mRefreshing = false;
+                    }
+                }
+            }
+        }, TAG).start();
+    }
+
+    private void refresh() {
+        RequestExecutor executor = RequestExecutor.getInstance();
+        QuotaGovernor governor = QuotaGovernor.getInstance();
+        List<ApiParser.Site> sites = new ArrayList<ApiParser.Site>();
+        boolean complete = false;
+        for (int page = 1; page <= MAX_PAGES; page++) {
+            if (!governor.acquire(ENDPOINT_SITES)) {
+                break;
+            }
+            byte[] json = executor.execute(ENDPOINT_SITES, ApiClient.getApiUrl() + "/sites?page="
+                    + page + "&pagesize=" + PAGE_SIZE + "&filter=default", REQUEST_POLICY, null);
+            if (json == null) {
+                break;
+            }
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            try {
+                sites.addAll(ApiParser.parseSites(new Utf8Reader(json), wrapper));
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+            governor.record(ENDPOINT_SITES, wrapper, System.currentTimeMillis());
+            if (!wrapper.hasMore) {
+                complete = true;
+                break;
+            }
+        }
+        if (sites.isEmpty()) {
+            Log.w(TAG, "Unable to refresh sites");
+            return;
+        }
+
+        SiteCatalog catalog;
+        long refreshed;
+        synchronized (this) {
+            SiteCatalog merged = mCatalog.merge(sites, complete);
+            if (merged != mCatalog) {
+                Log.i(TAG, "Site catalog changed, " + merged.size() + " sites");
+                mCatalog = merged;
+                mDisplayNames = null;
+            }
+            if (complete) {
+                mRefreshed = System.currentTimeMillis();
+            }
+            // a partial refresh keeps the old age, so the rest is fetched soon
+            catalog = mCatalog;
+            refreshed = mRefreshed;
+        }
+        writeSnapshot(catalog, refreshed);
+    }
+
+    private synchronized boolean readSnapshot() {
+        if (!mSnapshot.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshot)));
+            long refreshed = in.readLong();
+            SiteCatalog catalog = SiteCatalog.read(in);
+            if (catalog.size() == 0) {
+                return false;
+            }
+            mRefreshed = refreshed;
+            mCatalog = catalog;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read site snapshot", e);
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeSnapshot(SiteCatalog catalog, long refreshed) {
+        File temp = new File(mSnapshot.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeLong(refreshed);
+            catalog.write(out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(mSnapshot)) {
+                Log.w(TAG, "Unable to store site snapshot");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write site snapshot", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public synchronized CharSequence[] getNames() {
+        if (mDisplayNames == null) {
+            String[] names = mCatalog.getNames();
+            CharSequence[] list = new CharSequence[names.length];
+            for (int i = 0; i < names.length; i++) {
+                list[i] = Html.fromHtml(names[i]);
+            }
+            mDisplayNames = list;
+        }
+        return mDisplayNames;
+    }
+
+    public synchronized CharSequence[] getApiParameters() {
+        return mCatalog.getApiParameters();
+    }
+
+    public synchronized CharSequence[] getUrls() {
+        return mCatalog.getUrls();
+    }
+
+    public synchronized String getUrlFromApiParameter(String apiParameter) {
+        return mCatalog.getUrlFromApiParameter(apiParameter);
+    }
+
+    public synchronized String getNameFromApiParameter(String apiParameter) {
+        return mCatalog.getNameFromApiParameter(apiParameter);
+    }
+
+    public synchronized String getIconUrlFromApiParameter(String apiParameter) {
+        return mCatalog.getIconUrlFromApiParameter(apiParameter);
+    }
+
+    public int getIcon(String apiParameter) {
+        if (apiParameter.equals("stackoverflow")) {
+            return R.drawable.ic_stackoverflow;
+        } else if (apiParameter.equals("serverfault")) {
+            return R.drawable.ic_serverfault;
+        } else if (apiParameter.equals("superuser")) {
+            return R.drawable.ic_superuser;
+        } else if (apiParameter.equals("askubuntu")) {
+            return R.drawable.ic_askubuntu;
+        } else if (apiParameter.equals("meta.stackoverflow")) {
+            return R.drawable.ic_stackoverflow;
+        } else {
+            return R.drawable.ic_stackexchange;
+        }
+    }
+}
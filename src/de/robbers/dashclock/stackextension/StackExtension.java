@@ -16,36 +16,50 @@
 
 package de.robbers.dashclock.stackextension;
 
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.Html;
+import android.text.format.DateUtils;
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.LongSparseArray;
 
 import com.google.android.apps.dashclock.api.DashClockExtension;
-import com.google.android.apps.dashclock.api.ExtensionData;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
+import de.robbers.dashclock.stackextension.core.Accounts;
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.CalendarUtils;
+import de.robbers.dashclock.stackextension.core.RealtimeFeed;
+import de.robbers.dashclock.stackextension.core.RefreshPolicy;
+import de.robbers.dashclock.stackextension.core.ReputationAggregator;
+import de.robbers.dashclock.stackextension.core.ReputationRollup;
+import de.robbers.dashclock.stackextension.core.ReputationSync;
+import de.robbers.dashclock.stackextension.core.UpdateCoalescer;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.zip.GZIPInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class StackExtension extends DashClockExtension {
     private static final String TAG = "StackExtension";
@@ -53,238 +67,1045 @@ public class StackExtension extends DashClockExtension {
     public static final String PREF_SITE = "pref_site";
     public static final String PREF_USER_ID = "pref_user_id";
     public static final String PREF_DISPLAY = "pref_display";
+    public static final String PREF_CACHE_TTL = "pref_cache_ttl";
+    public static final String PREF_EXPANDED_POSTS = "pref_expanded_posts";
+    public static final String PREF_ACCOUNTS = "pref_accounts";
+    public static final String PREF_NETWORK_TOTALS = "pref_network_totals";
+    public static final String PREF_SITES_MAX_AGE = "pref_sites_max_age";
+    public static final String PREF_SINGLE_REQUEST = "pref_single_request";
+    public static final String PREF_PUSH = "pref_push";
+    public static final String PREF_PUSH_URL = "pref_push_url";
 
     private static final int DISPLAY_TOTAL_REP = 0;
     private static final int DISPLAY_TODAYS_REP = 1;
+    private static final int DISPLAY_WEEKS_REP = 2;
+    private static final int DISPLAY_MONTHS_REP = 3;
+
+    private static final int DEFAULT_EXPANDED_POSTS = 2;
+
+    // days of daily reputation sums, enough for this month and the last week
+    private static final int ROLLUP_DAYS = 31;
+
+    // for network accounts; users are fetched with the lean
+    // ApiFilters.USER_SUMMARY and reputation events with
+    // ApiFilters.REPUTATION_EVENTS
+    private static final String FILTER_DEFAULT = ApiFilters.FILTER_DEFAULT;
 
-    private static final int EXPANDED_BODY_POSTS = 2;
+    private static final int PAGE_SIZE = 100;
+    // requests per sync, very busy accounts are synced over several updates
+    private static final int MAX_REPUTATION_PAGES = 30;
+    // accounts have one associated user per site, so a batch spans many pages
+    private static final int MAX_ASSOCIATED_PAGES = 20;
+
+    private static final String ENDPOINT_USERS = "users";
+    private static final String ENDPOINT_REPUTATION = "users/reputation";
+    private static final String ENDPOINT_ASSOCIATED = "users/associated";
+    private static final String ENDPOINT_POSTS = "posts";
 
     private static final int ERROR_USER_SITE_COMBINATION = 0;
 
-    // from SharedPreferences
-    private String mSite;
-    private String mUserId;
-    private int mDisplay;
+    private static final int REQUEST_THREADS = 2;
+
+    // an update waits for these requests, so failures are retried and slow
+    // requests hedged, but only for a few seconds
+    private static final RequestExecutor.Policy REQUEST_POLICY =
+            new RequestExecutor.Policy(15 * 1000, 2, true);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    // used in publishUpdate
-    private boolean mVisible;
-    private String mStatus;
-    private String mExpandedTitle;
-    private String mExpandedBody;
+    // pretty-prints every API response to the log
+    private static final boolean VERBOSE = false;
+
+    // results older than this are marked as stale; when to refetch them is
+    // up to the scheduler
+    private static final long STALE_AGE = 60 * 60 * 1000;
+    private static final String SNAPSHOT_FILE = "last_result";
+
+    // triggers arriving within this window share the result of one fetch
+    private static final long COALESCE_WINDOW = 5 * 1000;
+
+    // notifications come in bursts and reach the API with a little delay
+    private static final long PUSH_DELAY = 5 * 1000;
+
+    // returned by performUserRequest if the user does not exist on the site
+    private static final ApiParser.User UNKNOWN_USER = new ApiParser.User();
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(REQUEST_THREADS);
+    private static final UpdateCoalescer<UpdateResult> sCoalescer =
+            new UpdateCoalescer<UpdateResult>(COALESCE_WINDOW);
+
+    // from SharedPreferences; the settings of an update are in its request
+    private boolean mPush;
+    private String mPushUrl;
 
     private Sites mSites;
-    private int mReputation;
-    private boolean mError;
+    private SiteIcons mIcons;
+    private ResponseCache mCache;
+    private ReputationStore mStore;
+    private RefreshScheduler mScheduler;
+    private QuotaGovernor mGovernor;
+    private Diagnostics mDiagnostics;
+    private ApiFilters mFilters;
+    private UpdateResult mLastResult;
+    // true while mLastResult is the snapshot of a previous process that no
+    // fetch has tried to replace yet
+    private boolean mRestored;
+
+    // on the update thread, which onUpdateData runs on
+    private Handler mHandler;
+    private RealtimeFeed mFeed;
+    // network account of the last fetched user, 0 if unknown
+    private long mAccountId;
+
+    /**
+     * Settings and state of one update. The fetch and its request tasks only
+     * read this, so a later trigger cannot change what a running fetch, or
+     * one that another trigger joined, is working on.
+     */
+    private static final class UpdateRequest {
+        final String site;
+        final String userId;
+        final int display;
+        final long cacheTtl;
+        final int expandedPosts;
+        final Accounts accounts;
+        final boolean networkTotals;
+        final boolean singleRequest;
+        final Diagnostics.Cycle cycle;
+        // no requests, only cached responses
+        final boolean offline;
+        // triggered by a push notification
+        final boolean pushed;
+
+        UpdateRequest(String site, String userId, int display, long cacheTtl, int expandedPosts,
+                Accounts accounts, boolean networkTotals, boolean singleRequest,
+                Diagnostics.Cycle cycle, boolean offline, boolean pushed) {
+            this.site = site;
+            this.userId = userId;
+            this.display = display;
+            this.cacheTtl = cacheTtl;
+            this.expandedPosts = expandedPosts;
+            this.accounts = accounts;
+            this.networkTotals = networkTotals;
+            this.singleRequest = singleRequest;
+            this.cycle = cycle;
+            this.offline = offline;
+            this.pushed = pushed;
+        }
+    }
+
+    private final Runnable mPushUpdate = new Runnable() {
+        @Override
+        public void run() {
+            onUpdateData(UPDATE_REASON_CONTENT_CHANGED);
+        }
+    };
+
+    private final RealtimeFeed.Listener mFeedListener = new RealtimeFeed.Listener() {
+        @Override
+        public void onConnected(RealtimeFeed feed) {
+            Log.i(TAG, "Push connected: " + feed.getTopic());
+        }
+
+        @Override
+        public void onMessage(RealtimeFeed feed, String data) {
+            Log.i(TAG, "Push notification: " + data);
+            mHandler.removeCallbacks(mPushUpdate);
+            mHandler.postDelayed(mPushUpdate, PUSH_DELAY);
+        }
+
+        @Override
+        public void onDisconnected(RealtimeFeed feed, IOException e) {
+            Log.w(TAG, "Push disconnected", e);
+        }
+    };
 
     @Override
     protected void onInitialize(boolean isReconnect) {
         super.onInitialize(isReconnect);
         setUpdateWhenScreenOn(true);
-        mSites = new Sites(this);
+        ApiClient.loadApiUrl(this);
+        mSites = Sites.getInstance(this);
+        mSites.refreshIfStale(Sites.getMaxAge(this));
+        mIcons = SiteIcons.getInstance(this);
+        mCache = ResponseCache.getInstance(this);
+        mStore = ReputationStore.getInstance(this);
+        mScheduler = new RefreshScheduler(this);
+        mGovernor = QuotaGovernor.getInstance();
+        mDiagnostics = Diagnostics.getInstance(this);
+        mFilters = ApiFilters.getInstance(this);
+
+        if (mLastResult == null) {
+            // show the last result of the previous process until the first
+            // update has finished
+            mLastResult = UpdateResult.load(this, getSnapshotFile());
+            if (mLastResult != null) {
+                mRestored = true;
+                mAccountId = mLastResult.accountId;
+                Log.i(TAG, "Publishing snapshot");
+                publishUpdate(markStale(mLastResult).toExtensionData());
+            }
+        }
+    }
+
+    private File getSnapshotFile() {
+        return new File(getFilesDir(), SNAPSHOT_FILE);
+    }
+
+    private static boolean isStale(UpdateResult result) {
+        return isOlderThan(result, STALE_AGE);
+    }
+
+    private static boolean isOlderThan(UpdateResult result, long age) {
+        return System.currentTimeMillis() - result.timestamp > age;
+    }
+
+    /**
+     * Returns the result with a note on its age in the expanded body if it is
+     * stale.
+     */
+    private UpdateResult markStale(UpdateResult result) {
+        if (!isStale(result)) {
+            return result;
+        }
+        CharSequence age = DateUtils.getRelativeTimeSpanString(result.timestamp);
+        return result.withExpandedBody(getString(R.string.stale_body, result.expandedBody, age));
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopFeed();
+        ApiClient.getInstance().closeIdleConnections();
     }
 
     @Override
     protected void onUpdateData(int reason) {
         Log.i(TAG, "onUpdateData");
-        clean();
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        Diagnostics.Cycle cycle = mDiagnostics.startCycle();
+        try {
+            performUpdate(reason, cycle);
+        } finally {
+            mDiagnostics.finishCycle(cycle);
+        }
+    }
 
-        loadPreferences();
+    private void performUpdate(int reason, Diagnostics.Cycle cycle) {
+        mScheduler.setPushConnected(mFeed != null && mFeed.isConnected());
+        final UpdateRequest request = loadPreferences(cycle, !mScheduler.isOnline(),
+                reason == UPDATE_REASON_CONTENT_CHANGED);
 
-        if (TextUtils.isEmpty(mSite) || TextUtils.isEmpty(mUserId)) {
-            Log.e(TAG, "Data missing");
+        // a single account syncs the same window for every display mode, so
+        // switching modes is answered from the store
+        String signature = request.accounts.isEmpty()
+                ? request.site + "|" + request.userId
+                : request.accounts + "|" + request.networkTotals + "|" + request.display;
+        // a snapshot only bridges the start of the process; it is replaced once
+        // it is older than the shortest interval, not after the learned one
+        boolean forced = mLastResult == null
+                || (mRestored && isOlderThan(mLastResult, RefreshPolicy.MIN_INTERVAL))
+                || request.pushed
+                || reason == UPDATE_REASON_MANUAL
+                || reason == UPDATE_REASON_SETTINGS_CHANGED;
+        boolean due = mScheduler.shouldFetch(signature, forced);
+        if (due) {
+            // a failed fetch leaves retries to the scheduler's backoff
+            mRestored = false;
+        }
+        if (!due && mLastResult != null) {
+            // answer the trigger with the last result
+            publishResult(mLastResult, cycle);
+            updateFeed();
             return;
         }
+        // else nothing to show yet, fall back to cached responses
 
-        performUserRequest();
+        // a notification must not be answered by a result fetched before it
+        String key = signature + "|" + request.display + "|" + request.expandedPosts
+                + (request.pushed ? "|push" : "");
+        UpdateResult result = sCoalescer.run(key, new Callable<UpdateResult>() {
+            @Override
+            public UpdateResult call() {
+                return fetch(request);
+            }
+        });
+        if (due) {
+            // only a fetch that brought a result restarts the interval
+            if (result != null) {
+                mScheduler.onFetched(signature);
+            } else {
+                mScheduler.onFetchFailed(signature);
+            }
+        }
+        if (result != null) {
+            mAccountId = result.accountId;
+            publishResult(result, cycle);
+        }
+        updateFeed();
+    }
 
-        if (mReputation == Integer.MIN_VALUE) {
-            Log.e(TAG, "Unable to fetch reputation.");
+    /**
+     * Starts, restarts or stops the push feed to match the preferences. The
+     * feed needs the network account of the user, so it starts after the
+     * first successful fetch.
+     */
+    private void updateFeed() {
+        String topic = null;
+        URI uri = null;
+        if (mPush && mAccountId > 0) {
+            topic = RealtimeFeed.getTopBarTopic(mAccountId);
+            try {
+                uri = URI.create(TextUtils.isEmpty(mPushUrl) ? RealtimeFeed.DEFAULT_URL : mPushUrl);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                topic = null;
+            }
+        }
+        if (mFeed != null && topic != null && mFeed.getTopic().equals(topic)
+                && mFeed.getUri().equals(uri)) {
             return;
         }
+        stopFeed();
+        if (topic != null) {
+            Log.i(TAG, "Starting push feed " + uri + " " + topic);
+            mFeed = new RealtimeFeed(uri, topic, mFeedListener);
+            mFeed.start();
+        }
+    }
+
+    private void stopFeed() {
+        if (mFeed != null) {
+            mFeed.stop();
+            mFeed = null;
+        }
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mPushUpdate);
+        }
+    }
+
+    /**
+     * Fetches and builds the result of an update, or returns null if there is
+     * nothing to publish.
+     */
+    private UpdateResult fetch(final UpdateRequest request) {
+        if (!request.accounts.isEmpty()) {
+            return performMultiAccountUpdate(request);
+        }
 
-        performReputationRequest();
+        if (TextUtils.isEmpty(request.site) || TextUtils.isEmpty(request.userId)) {
+            Log.e(TAG, "Data missing");
+            return null;
+        }
 
-        publishUpdate();
+        if (request.pushed) {
+            return performPushedUpdate(request);
+        }
+
+        if (request.singleRequest) {
+            return performSequentialUpdate(request);
+        }
+
+        // the reputation request does not depend on the user response, so
+        // both run in parallel and are joined before publishing
+        Future<ApiParser.User> userFuture = sExecutor.submit(new Callable<ApiParser.User>() {
+            @Override
+            public ApiParser.User call() {
+                return performUserRequest(request);
+            }
+        });
+        Future<ReputationWindow> reputationFuture = sExecutor.submit(new Callable<ReputationWindow>() {
+            @Override
+            public ReputationWindow call() {
+                return performReputationRequest(request, null);
+            }
+        });
+
+        try {
+            ApiParser.User user = userFuture.get();
+            if (user == UNKNOWN_USER) {
+                reputationFuture.cancel(true);
+                return buildErrorResult(ERROR_USER_SITE_COMBINATION);
+            }
+            if (user == null) {
+                reputationFuture.cancel(true);
+                Log.e(TAG, "Unable to fetch reputation.");
+                return null;
+            }
+            return buildResult(request, user, reputationFuture.get());
+        } catch (InterruptedException e) {
+            reputationFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            reputationFuture.cancel(true);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the user first and the reputation timeline only if the user's
+     * reputation changed since the last sync, so an update without changes
+     * takes a single request.
+     */
+    private UpdateResult performSequentialUpdate(UpdateRequest request) {
+        ApiParser.User user = performUserRequest(request);
+        if (user == UNKNOWN_USER) {
+            return buildErrorResult(ERROR_USER_SITE_COMBINATION);
+        }
+        if (user == null) {
+            Log.e(TAG, "Unable to fetch reputation.");
+            return null;
+        }
+        return buildResult(request, user, performReputationRequest(request, user));
     }
 
-    private void clean() {
-        mReputation = Integer.MIN_VALUE;
-        mError = false;
-        mVisible = true;
-        mStatus = "";
-        mExpandedTitle = "";
-        mExpandedBody = "";
+    /**
+     * Answers a push notification: the reputation timeline is synced past the
+     * cache, and the user is only refetched if its total is displayed. The
+     * other display modes are computed from the synced timeline.
+     */
+    private UpdateResult performPushedUpdate(UpdateRequest request) {
+        ApiParser.User user = performUserRequest(request, request.display == DISPLAY_TOTAL_REP);
+        if (user == UNKNOWN_USER) {
+            return buildErrorResult(ERROR_USER_SITE_COMBINATION);
+        }
+        if (user == null) {
+            Log.e(TAG, "Unable to fetch reputation.");
+            return null;
+        }
+        return buildResult(request, user, performReputationRequest(request, null));
     }
 
-    private void loadPreferences() {
+    /**
+     * Reads the settings of an update; those that are not part of its request
+     * are kept in fields.
+     */
+    private UpdateRequest loadPreferences(Diagnostics.Cycle cycle, boolean offline,
+            boolean pushed) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        mSite = sp.getString(PREF_SITE, null);
-        mUserId = sp.getString(PREF_USER_ID, null);
+        String site = sp.getString(PREF_SITE, null);
+        String userId = sp.getString(PREF_USER_ID, null);
+
+        String displayPref = sp.getString(PREF_DISPLAY, null);
+        int display = DISPLAY_TOTAL_REP;
+        if (displayPref == null) {
+            // the total
+        } else if (displayPref.equals(getString(R.string.display_todays_rep))) {
+            display = DISPLAY_TODAYS_REP;
+        } else if (displayPref.equals(getString(R.string.display_weeks_rep))) {
+            display = DISPLAY_WEEKS_REP;
+        } else if (displayPref.equals(getString(R.string.display_months_rep))) {
+            display = DISPLAY_MONTHS_REP;
+        }
+
+        Accounts accounts = Accounts.parse(sp.getString(PREF_ACCOUNTS, null));
+        boolean networkTotals = sp.getBoolean(PREF_NETWORK_TOTALS, false);
+        boolean singleRequest = sp.getBoolean(PREF_SINGLE_REQUEST, false);
+        ApiClient.loadApiUrl(this);
+        if (mStore.setApiUrl(ApiClient.getApiUrl())) {
+            // cached responses are keyed by server, this only frees the space
+            mCache.clear();
+        }
+        mPush = sp.getBoolean(PREF_PUSH, false);
+        mPushUrl = sp.getString(PREF_PUSH_URL, null);
 
-        String display = sp.getString(PREF_DISPLAY, null);
+        int expandedPosts = DEFAULT_EXPANDED_POSTS;
+        String expandedPostsPref = sp.getString(PREF_EXPANDED_POSTS, null);
+        if (!TextUtils.isEmpty(expandedPostsPref)) {
+            try {
+                expandedPosts = Integer.parseInt(expandedPostsPref);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
 
-        if (display == null || display.equals(getString(R.string.display_total_rep))) {
-            mDisplay = DISPLAY_TOTAL_REP;
-        } else if (display.equals(getString(R.string.display_todays_rep))) {
-            mDisplay = DISPLAY_TODAYS_REP;
+        long cacheTtl = ResponseCache.DEFAULT_TTL;
+        String cacheTtlPref = sp.getString(PREF_CACHE_TTL, null);
+        if (!TextUtils.isEmpty(cacheTtlPref)) {
+            try {
+                cacheTtl = Long.parseLong(cacheTtlPref) * 60 * 1000;
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
         }
+        return new UpdateRequest(site, userId, display, cacheTtl, expandedPosts, accounts,
+                networkTotals, singleRequest, cycle, offline, pushed);
     }
 
-    private String performHttpRequest(String uri) {
-        Log.i(TAG, "URI: "+ uri);
-        DefaultHttpClient client = new DefaultHttpClient();
-        HttpGet get = new HttpGet(uri);
-        get.addHeader("Accept-Encoding", "gzip");
+    private ResponseCache.Entry performCachedRequest(UpdateRequest request, String cacheKey,
+            String endpoint, String uri) {
+        return performCachedRequest(request, cacheKey, endpoint, uri, false);
+    }
+
+    /**
+     * @param refetch true to skip a fresh cached response, it is still served
+     *            if the request fails
+     */
+    private ResponseCache.Entry performCachedRequest(UpdateRequest request, String cacheKey,
+            String endpoint, String uri, boolean refetch) {
+        ResponseCache.Entry cached = mCache.get(cacheKey);
+        if (cached != null && !refetch && cached.isFresh(request.cacheTtl)) {
+            Log.i(TAG, "Cache hit: " + cacheKey);
+            request.cycle.recordCacheHit();
+            return cached;
+        }
+
+        byte[] json = null;
+        if (!request.offline && mGovernor.acquire(endpoint)) {
+            json = performHttpRequest(request, endpoint, uri);
+        }
+        if (json != null && isValidResponse(json)) {
+            return mCache.put(cacheKey, json);
+        }
+
+        if (cached != null) {
+            // request failed, rather show the last known data than nothing
+            Log.i(TAG, "Serving stale response: " + cacheKey);
+            request.cycle.recordCacheHit();
+            return cached;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the body has items and no error, only those are worth
+     * caching.
+     */
+    private static boolean isValidResponse(byte[] json) {
         try {
-            // get JSON from Stack Exchange API
-            HttpResponse response = client.execute(get);
-            InputStream inputStream = response.getEntity().getContent();
-            GZIPInputStream zis = new GZIPInputStream(new BufferedInputStream(inputStream));
-            InputStreamReader reader = new InputStreamReader(zis);
-            BufferedReader in = new BufferedReader(reader);
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                builder.append(line);
+            ApiParser.ApiError error = ApiParser.parseError(openReader(json));
+            if (error == null) {
+                return true;
             }
-            String json = builder.toString();
-            zis.close();
-            return json;
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
+            Log.w(TAG, "Error response: " + error);
         } catch (IOException e) {
+            Log.w(TAG, "Invalid response: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void recordWrapper(String endpoint, ApiParser.Wrapper wrapper,
+            ResponseCache.Entry response) {
+        mGovernor.record(endpoint, wrapper, response.timestamp);
+        Log.i(TAG, "Budget: " + mGovernor.getBudget());
+    }
+
+    private byte[] performHttpRequest(UpdateRequest request, String endpoint, String uri) {
+        return RequestExecutor.getInstance().execute(endpoint, uri, REQUEST_POLICY, request.cycle);
+    }
+
+    private static Reader openReader(byte[] json) {
+        return new Utf8Reader(json);
+    }
+
+    private static void logResponse(byte[] json) {
+        if (!VERBOSE) {
+            return;
+        }
+        try {
+            Log.v(TAG, new JSONObject(new String(json, UTF_8)).toString(2));
+        } catch (JSONException e) {
             e.printStackTrace();
         }
-        return null;
     }
 
-    private void performUserRequest() {
-        String uri = "http://api.stackexchange.com/2.1/users/" + mUserId
-                + "?filter=!23IloFiYU)QFymiC*mrgr&site=" + mSite;
-        String json = performHttpRequest(uri);
-        parseUserResponse(json);
+    private ApiParser.User performUserRequest(UpdateRequest request) {
+        return performUserRequest(request, false);
+    }
+
+    private ApiParser.User performUserRequest(UpdateRequest request, boolean refetch) {
+        String filter = mFilters.get(ApiFilters.USER_SUMMARY, request.cycle);
+        String uri = ApiClient.getApiUrl() + "/users/" + request.userId
+                + "?filter=" + filter + "&site=" + request.site;
+        String cacheKey = ResponseCache.buildKey(request.site, request.userId, "users", filter);
+        ResponseCache.Entry response = performCachedRequest(request, cacheKey, ENDPOINT_USERS, uri,
+                refetch);
+        return parseUserResponse(request, response);
+    }
+
+    /**
+     * Reputation of the synced window: daily sums in the local time zone and
+     * the expanded body listing the top posts of the displayed period.
+     */
+    private static class ReputationWindow {
+        final ReputationRollup rollup;
+        // false if the store does not hold the whole window yet
+        final boolean complete;
+        final String expandedBody;
+
+        ReputationWindow(ReputationRollup rollup, boolean complete, String expandedBody) {
+            this.rollup = rollup;
+            this.complete = complete;
+            this.expandedBody = expandedBody;
+        }
+    }
+
+    /**
+     * Syncs the reputation window into the store and returns its reputation,
+     * or null if the update was cancelled. The window covers this month and
+     * the last seven days, so all display modes are served from one sync. If
+     * the user is given and neither their reputation nor its changes of the
+     * day, week and month have changed since the last sync, the store is read
+     * without a request.
+     */
+    private ReputationWindow performReputationRequest(UpdateRequest request,
+            ApiParser.User user) {
+        Calendar calendar = Calendar.getInstance();
+        final ReputationRollup rollup = new ReputationRollup(calendar.getTimeZone(),
+                calendar.getFirstDayOfWeek(), ROLLUP_DAYS, System.currentTimeMillis());
+        long lastWeek = CalendarUtils.getStartOfDay(calendar.getTimeZone(),
+                rollup.getStartOfToday() - 6 * CalendarUtils.ONE_DAY);
+        long from = Math.min(Math.min(rollup.getStartOfMonth(), rollup.getStartOfWeek()),
+                lastWeek) / 1000;
+
+        // top posts of the displayed period, the last week for the total
+        long periodStart = lastWeek / 1000;
+        switch (request.display) {
+            case DISPLAY_TODAYS_REP:
+                periodStart = rollup.getStartOfToday() / 1000;
+                break;
+            case DISPLAY_WEEKS_REP:
+                periodStart = rollup.getStartOfWeek() / 1000;
+                break;
+            case DISPLAY_MONTHS_REP:
+                periodStart = rollup.getStartOfMonth() / 1000;
+                break;
+        }
+
+        ReputationStore.SyncState state = mStore.getSyncState(request.site, request.userId);
+        boolean covered;
+        if (user != null && state != null && state.covers(from) && state.matches(user)) {
+            Log.i(TAG, "Reputation unchanged, reading the store");
+            covered = true;
+        } else {
+            covered = syncReputation(request, from, periodStart, state, user);
+            if (Thread.currentThread().isInterrupted()) {
+                // cancelled because the user request failed
+                return null;
+            }
+        }
+
+        final long aggregateFrom = periodStart;
+        final ReputationAggregator aggregator = new ReputationAggregator(request.expandedPosts);
+        mStore.query(request.site, request.userId, from, new ApiParser.ReputationHandler() {
+            @Override
+            public void onReputationChange(long onDate, long postId, String voteType,
+                    int reputationChange, String title) {
+                rollup.onReputationChange(onDate, postId, voteType, reputationChange, title);
+                if (onDate >= aggregateFrom) {
+                    aggregator.onReputationChange(onDate, postId, voteType, reputationChange,
+                            title);
+                }
+            }
+        });
+        ReputationAggregator.Post[] posts = aggregator.getTopPosts();
+        return new ReputationWindow(rollup, covered,
+                buildExpandedBody(posts, performTitlesRequest(request, posts)));
     }
 
-    private void performReputationRequest() {
-        long from = CalendarUtils.getToday() / 1000;
-        if (mDisplay == DISPLAY_TOTAL_REP) {
-            from = CalendarUtils.getOneWeekAgo() / 1000;
+    /**
+     * Returns the decoded titles of the posts by post id, from the title cache
+     * or with one /posts/{ids} request for the missing ones. Titles that could
+     * not be fetched are missing from the result.
+     */
+    private Map<Long, String> performTitlesRequest(UpdateRequest request,
+            ReputationAggregator.Post[] posts) {
+        List<Long> ids = new ArrayList<Long>();
+        for (ReputationAggregator.Post post : posts) {
+            // events like the association bonus belong to no post, and events
+            // fetched with the default filter bring their own title
+            if (post.postId > 0 && TextUtils.isEmpty(post.title)) {
+                ids.add(post.postId);
+            }
+        }
+        long[] postIds = new long[ids.size()];
+        for (int i = 0; i < postIds.length; i++) {
+            postIds[i] = ids.get(i);
+        }
+        Map<Long, String> titles = mStore.getTitles(request.site, postIds);
+        ids.removeAll(titles.keySet());
+        if (ids.isEmpty()) {
+            return titles;
+        }
+
+        String filter = mFilters.get(ApiFilters.POST_TITLES, request.cycle);
+        String batch = TextUtils.join(";", ids);
+        String uri = ApiClient.getApiUrl() + "/posts/" + batch + "?pagesize=" + PAGE_SIZE
+                + "&filter=" + filter + "&site=" + request.site;
+        String cacheKey = ResponseCache.buildKey(request.site, batch, "posts", filter);
+        Map<Long, String> fetched = parsePostsResponse(request,
+                performCachedRequest(request, cacheKey, ENDPOINT_POSTS, uri));
+        if (fetched != null && !fetched.isEmpty()) {
+            Log.i(TAG, "Fetched " + fetched.size() + " of " + ids.size() + " titles");
+            mStore.putTitles(request.site, fetched);
+            titles.putAll(fetched);
         }
+        return titles;
+    }
 
+    /**
+     * Fetches the reputation events missing from the window starting at from
+     * (in seconds) into the store, within MAX_REPUTATION_PAGES requests, and
+     * returns whether the store now covers the whole window. Paging through
+     * the new events stops once an event before periodStart has been seen.
+     * The reputation of the user, if given, is recorded with the sync state
+     * once the window is covered.
+     */
+    private boolean syncReputation(final UpdateRequest request, long from, long periodStart,
+            ReputationStore.SyncState state, ApiParser.User user) {
         long to = CalendarUtils.getTomorrow() / 1000;
+        ReputationSync.Range synced = state == null ? null
+                : new ReputationSync.Range(state.from, state.until);
+        ReputationSync.Result result = ReputationSync.sync(new ReputationSync.Pager() {
+            @Override
+            public ReputationSync.Page fetchPage(long fetchFrom, long fetchTo, int page) {
+                return fetchReputationPage(request, fetchFrom, fetchTo, page);
+            }
+        }, MAX_REPUTATION_PAGES, from, to, periodStart, synced);
+        if (result.synced == null) {
+            Log.w(TAG, "Reputation sync failed");
+            return result.covered;
+        }
 
-        String uri = "http://api.stackexchange.com/2.1/users/" + mUserId
-                + "/reputation?fromdate=" + from + "&todate=" + to
-                + "&filter=!A6zx8gZ1_N(X9" + "&site=" + mSite;
-        String json = performHttpRequest(uri);
-        parseReputationResponse(json);
+        mStore.setSyncState(request.site, request.userId, result.synced.from,
+                result.synced.until, result.covered ? user : null);
+        if (result.lastSeen > 0) {
+            mScheduler.onReputationChanged(result.lastSeen * 1000);
+        }
+        if (!result.covered) {
+            Log.w(TAG, "Reputation window synced back to " + result.synced.from
+                    + ", will continue");
+        }
+        return result.covered;
     }
 
-    private void parseUserResponse(String json) {
-        if (json == null) {
-            return;
+    /**
+     * Fetches one page of the events between fetchFrom and fetchTo (in
+     * seconds) and merges it into the store. Returns null if the page could
+     * not be fetched or the update was cancelled.
+     */
+    private ReputationSync.Page fetchReputationPage(UpdateRequest request, long fetchFrom,
+            long fetchTo, int page) {
+        String filter = mFilters.get(ApiFilters.REPUTATION_EVENTS, request.cycle);
+        String uri = ApiClient.getApiUrl() + "/users/" + request.userId
+                + "/reputation?fromdate=" + fetchFrom + "&todate=" + fetchTo
+                + "&page=" + page + "&pagesize=" + PAGE_SIZE
+                + "&filter=" + filter + "&site=" + request.site;
+        String cacheKey = ResponseCache.buildKey(request.site, request.userId,
+                "reputation?fromdate=" + fetchFrom + "&todate=" + fetchTo + "&page=" + page,
+                filter);
+        // after a notification the cached page predates the new events
+        ResponseCache.Entry response = performCachedRequest(request, cacheKey,
+                ENDPOINT_REPUTATION, uri, request.pushed);
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
         }
-        try {
-            JSONArray items = new JSONObject(json).getJSONArray("items");
-            Log.i(TAG, items.toString(2));
-            if (items.length() == 0) {
-                mError = true;
-                publishErrorUpdate(ERROR_USER_SITE_COMBINATION);
-                return;
+        ReputationStore.Sync sync = mStore.beginSync(request.site, request.userId);
+        ApiParser.Wrapper wrapper = parseReputationResponse(request, response, sync);
+        if (wrapper == null) {
+            return null;
+        }
+        return new ReputationSync.Page(sync.getLastSeen(), sync.getOldestSeen(),
+                wrapper.hasMore);
+    }
+
+    /**
+     * Fetches all tracked accounts with one /users/{ids} request per site (per
+     * 100 users) and publishes their combined reputation. With network totals
+     * enabled, one more /users/{ids}/associated request sums the reputation of
+     * the underlying network accounts across all their sites.
+     */
+    private UpdateResult performMultiAccountUpdate(UpdateRequest request) {
+        List<String> lines = new ArrayList<String>();
+        Set<Long> accountIds = new LinkedHashSet<Long>();
+        String firstUrl = null;
+        int total = 0;
+        int found = 0;
+
+        String filter = mFilters.get(ApiFilters.USER_SUMMARY, request.cycle);
+        for (String site : request.accounts.getSites()) {
+            String siteName = mSites.getNameFromApiParameter(site);
+            String siteUrl = mSites.getUrlFromApiParameter(site);
+            if (siteName == null || siteUrl == null) {
+                // no name or link to show, the catalog may not have it yet
+                Log.w(TAG, "Skipping accounts of unknown site " + site);
+                continue;
             }
-            JSONObject user = items.getJSONObject(0);
-            switch (mDisplay) {
-                case DISPLAY_TOTAL_REP:
-                    mReputation = user.getInt("reputation");
-                    break;
-                case DISPLAY_TODAYS_REP:
-                    mReputation = user.getInt("reputation_change_day");
-                    if (mReputation == 0) {
-                        mVisible = false;
+            for (String ids : Accounts.batch(request.accounts.getUserIds(site))) {
+                String uri = ApiClient.getApiUrl() + "/users/" + ids
+                        + "?pagesize=" + Accounts.MAX_IDS_PER_REQUEST
+                        + "&filter=" + filter + "&site=" + site;
+                String cacheKey = ResponseCache.buildKey(site, ids, "users", filter);
+                List<ApiParser.User> users = parseUsersResponse(request,
+                        performCachedRequest(request, cacheKey, ENDPOINT_USERS, uri),
+                        ENDPOINT_USERS, new ApiParser.Wrapper());
+                if (users == null) {
+                    continue;
+                }
+                for (ApiParser.User user : users) {
+                    int reputation = getReputation(request, user);
+                    total += reputation;
+                    found++;
+                    accountIds.add(user.accountId);
+                    if (firstUrl == null) {
+                        firstUrl = siteUrl + "/users/" + user.userId + "?tab=reputation";
                     }
-                    break;
+                    lines.add(formatReputation(reputation) + " \u2014 " + Html.fromHtml(siteName));
+                }
             }
-        } catch (JSONException e) {
-            Log.i(TAG, json);
+        }
+
+        if (found == 0) {
+            Log.e(TAG, "Unable to fetch reputation.");
+            return null;
+        }
+
+        String title = getString(R.string.accounts_title, found);
+        if (request.networkTotals && request.display == DISPLAY_TOTAL_REP) {
+            int networkTotal = performAssociatedRequest(request, accountIds);
+            if (networkTotal != Integer.MIN_VALUE) {
+                total = networkTotal;
+                title = getString(R.string.network_title);
+            }
+        }
+
+        String status = formatReputation(total);
+        return new UpdateResult(request.display == DISPLAY_TOTAL_REP || total != 0,
+                R.drawable.ic_stackexchange, null, status,
+                status + " Reputation \u2014 " + title,
+                TextUtils.join("\n", lines), firstUrl, 0);
+    }
+
+    /**
+     * Returns the reputation summed over all sites of the given network
+     * accounts, or Integer.MIN_VALUE if it could not be fetched completely.
+     */
+    private int performAssociatedRequest(UpdateRequest request, Set<Long> accountIds) {
+        List<String> ids = new ArrayList<String>(accountIds.size());
+        for (Long accountId : accountIds) {
+            ids.add(String.valueOf(accountId));
+        }
+        int total = 0;
+        for (String batch : Accounts.batch(ids)) {
+            boolean complete = false;
+            for (int page = 1; page <= MAX_ASSOCIATED_PAGES && !complete; page++) {
+                String uri = ApiClient.getApiUrl() + "/users/" + batch + "/associated"
+                        + "?page=" + page + "&pagesize=" + PAGE_SIZE + "&filter=" + FILTER_DEFAULT;
+                String cacheKey = ResponseCache.buildKey("network", batch,
+                        "associated?page=" + page, FILTER_DEFAULT);
+                ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+                List<ApiParser.User> users = parseUsersResponse(request,
+                        performCachedRequest(request, cacheKey, ENDPOINT_ASSOCIATED, uri),
+                        ENDPOINT_ASSOCIATED, wrapper);
+                if (users == null) {
+                    return Integer.MIN_VALUE;
+                }
+                for (ApiParser.User user : users) {
+                    total += user.reputation;
+                }
+                complete = !wrapper.hasMore;
+            }
+            if (!complete) {
+                // a partial sum would understate the network total
+                Log.w(TAG, "Associated accounts exceed " + MAX_ASSOCIATED_PAGES + " pages");
+                return Integer.MIN_VALUE;
+            }
+        }
+        return total;
+    }
+
+    private List<ApiParser.User> parseUsersResponse(UpdateRequest request,
+            ResponseCache.Entry response, String endpoint, ApiParser.Wrapper wrapper) {
+        if (response == null) {
+            return null;
+        }
+        logResponse(response.payload);
+        long start = System.nanoTime();
+        try {
+            List<ApiParser.User> users = ApiParser.parseUsers(openReader(response.payload), wrapper);
+            request.cycle.recordSince(Diagnostics.PHASE_PARSE, start);
+            recordWrapper(endpoint, wrapper, response);
+            return users;
+        } catch (IOException e) {
+            request.cycle.recordError();
             e.printStackTrace();
+            return null;
         }
     }
 
-    private void parseReputationResponse(String json) {
-        if (json == null) {
-            return;
+    private static String formatReputation(int reputation) {
+        return NumberFormat.getNumberInstance(Locale.US).format(reputation);
+    }
+
+    /**
+     * Returns the user of a /users response, UNKNOWN_USER if the site has no
+     * such user, or null if the response could not be parsed.
+     */
+    private ApiParser.User parseUserResponse(UpdateRequest request,
+            ResponseCache.Entry response) {
+        if (response == null) {
+            return null;
         }
-        mExpandedBody = "";
-        LongSparseArray reputationArray = new LongSparseArray();
+        logResponse(response.payload);
+        long start = System.nanoTime();
         try {
-            JSONArray items = new JSONObject(json).getJSONArray("items");
-            Log.i(TAG, items.toString(2));
-
-            for (int i = 0; i < items.length(); i++) {
-                JSONObject reputation = items.getJSONObject(i);
-                long postId = reputation.optLong("post_id");
-                int reputationChange = reputation.optInt("reputation_change");
-                int newValue = reputationChange;
-                newValue += (Integer) reputationArray.get(postId, 0);
-                reputationArray.put(postId, newValue);
-            }
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            ApiParser.User user = ApiParser.parseUser(openReader(response.payload), wrapper);
+            request.cycle.recordSince(Diagnostics.PHASE_PARSE, start);
+            recordWrapper(ENDPOINT_USERS, wrapper, response);
+            return user == null ? UNKNOWN_USER : user;
+        } catch (IOException e) {
+            request.cycle.recordError();
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            List<Long> postIds = new ArrayList<Long>();
-            for (int i = 0; i < items.length(); i++) {
-                JSONObject reputation = items.getJSONObject(i);
-                long postId = reputation.optLong("post_id");
-                int reputationChange = reputation.optInt("reputation_change");
-                if (postIds.contains(postId) || reputationChange == 0) {
-                    continue;
-                }
-                postIds.add(postId);
-                int reputationValue = (Integer) reputationArray.get(postId);
-                String title = String.valueOf(Html.fromHtml(reputation.optString("title")));
-                mExpandedBody += buildExpandedBodyPost(reputationValue, title, postIds.size());
+    /**
+     * Merges one page of events into the store and returns the response
+     * wrapper, or null if the page could not be fetched or parsed.
+     */
+    private ApiParser.Wrapper parseReputationResponse(UpdateRequest request,
+            ResponseCache.Entry response, ReputationStore.Sync sync) {
+        if (response == null) {
+            sync.abort();
+            return null;
+        }
+        logResponse(response.payload);
+        long start = System.nanoTime();
+        try {
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            ApiParser.parseReputation(openReader(response.payload), wrapper, sync);
+            request.cycle.recordSince(Diagnostics.PHASE_PARSE, start);
+            recordWrapper(ENDPOINT_REPUTATION, wrapper, response);
+            sync.commit();
+            Log.i(TAG, "Merged " + sync.getCount() + " reputation events");
+            return wrapper;
+        } catch (IOException e) {
+            sync.abort();
+            request.cycle.recordError();
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the decoded titles of a /posts response by post id, or null if
+     * it could not be parsed.
+     */
+    private Map<Long, String> parsePostsResponse(UpdateRequest request,
+            ResponseCache.Entry response) {
+        if (response == null) {
+            return null;
+        }
+        logResponse(response.payload);
+        long start = System.nanoTime();
+        try {
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            Map<Long, String> titles = new HashMap<Long, String>();
+            ApiParser.parsePostTitles(openReader(response.payload), wrapper, titles);
+            for (Map.Entry<Long, String> title : titles.entrySet()) {
+                title.setValue(Html.fromHtml(title.getValue()).toString());
             }
-        } catch (JSONException e) {
-            Log.i(TAG, json);
+            request.cycle.recordSince(Diagnostics.PHASE_PARSE, start);
+            recordWrapper(ENDPOINT_POSTS, wrapper, response);
+            return titles;
+        } catch (IOException e) {
+            request.cycle.recordError();
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    private String buildExpandedBody(ReputationAggregator.Post[] posts, Map<Long, String> titles) {
+        if (posts.length == 0) {
+            return getString(R.string.no_recent_reputation_changes);
         }
-        if (TextUtils.isEmpty(mExpandedBody)) {
-            mExpandedBody = getString(R.string.no_recent_reputation_changes);
+        StringBuilder body = new StringBuilder();
+        for (ReputationAggregator.Post post : posts) {
+            if (body.length() > 0) {
+                body.append('\n');
+            }
+            if (post.reputationChange > 0) {
+                body.append('+');
+            }
+            String title = titles.get(post.postId);
+            if (title == null) {
+                // events stored with the full filter still carry their title
+                title = !TextUtils.isEmpty(post.title) ? Html.fromHtml(post.title).toString()
+                        : getString(R.string.untitled_post, post.postId);
+            }
+            body.append(post.reputationChange)
+                    .append(" \u2014 ")
+                    .append(title);
         }
+        return body.toString();
     }
 
-    private String buildExpandedBodyPost(int reputationChange, String title, int posts) {
-        String post = "";
-        if (posts <= EXPANDED_BODY_POSTS) {
-            post += posts > 1 ? "\n" : "";
-            post += reputationChange > 0 ? "+" + reputationChange
-                    : reputationChange;
-            post += " \u2014 " + title;
+    /**
+     * Returns the displayed reputation from the API's user fields. Periods are
+     * UTC based here.
+     */
+    private int getReputation(UpdateRequest request, ApiParser.User user) {
+        switch (request.display) {
+            case DISPLAY_TODAYS_REP:
+                return user.reputationChangeDay;
+            case DISPLAY_WEEKS_REP:
+                return user.reputationChangeWeek;
+            case DISPLAY_MONTHS_REP:
+                return user.reputationChangeMonth;
+            default:
+                return user.reputation;
         }
-        return post;
     }
 
-    private void publishUpdate() {
-        if (mError) {
-            return;
+    /**
+     * Returns the displayed reputation, using local day boundaries if the
+     * store holds the whole window.
+     */
+    private int getReputation(UpdateRequest request, ApiParser.User user,
+            ReputationWindow window) {
+        if (window == null || !window.complete) {
+            return getReputation(request, user);
+        }
+        switch (request.display) {
+            case DISPLAY_TODAYS_REP:
+                return window.rollup.getToday();
+            case DISPLAY_WEEKS_REP:
+                return window.rollup.getThisWeek();
+            case DISPLAY_MONTHS_REP:
+                return window.rollup.getThisMonth();
+            default:
+                return user.reputation;
         }
-        mStatus = NumberFormat.getNumberInstance(Locale.US).format(mReputation);
-        mExpandedTitle = mStatus + " Reputation" + " \u2014 "
-                + mSites.getNameFromApiParameter(mSite);
-        mExpandedBody = mExpandedBody == null ? "" : mExpandedBody;
+    }
 
-        int icon = mSites.getIcon(mSite);
-        String url = mSites.getUrlFromApiParameter(mSite) + "/users/" + mUserId + "?tab=reputation";
-        // Publish the extension data update.
-        publishUpdate(new ExtensionData()
-                .visible(mVisible)
-                .icon(icon)
-                .status(mStatus)
-                .expandedTitle(mExpandedTitle)
-                .expandedBody(mExpandedBody)
-                .clickIntent(new Intent(Intent.ACTION_VIEW, Uri.parse(url))));
+    private UpdateResult buildResult(UpdateRequest request, ApiParser.User user,
+            ReputationWindow window) {
+        int reputation = getReputation(request, user, window);
+        String expandedBody = window == null ? null : window.expandedBody;
+        String status = formatReputation(reputation);
+        // a site missing from the catalog is shown by its API name, without
+        // a link to the profile
+        String siteName = mSites.getNameFromApiParameter(request.site);
+        String siteUrl = mSites.getUrlFromApiParameter(request.site);
+        String expandedTitle = status + " Reputation" + " \u2014 "
+                + (siteName == null ? request.site : siteName);
+        String url = siteUrl == null ? null
+                : siteUrl + "/users/" + request.userId + "?tab=reputation";
+        // the downloaded site icon, the bundled drawable stays as fallback
+        Uri iconUri = mIcons.getIconUri(request.site,
+                mSites.getIconUrlFromApiParameter(request.site));
+        return new UpdateResult(request.display == DISPLAY_TOTAL_REP || reputation != 0,
+                mSites.getIcon(request.site), iconUri == null ? null : iconUri.toString(), status,
+                expandedTitle, expandedBody == null ? "" : expandedBody, url, user.accountId);
     }
 
-    private void publishErrorUpdate(int errorCode) {
-        mVisible = true;
+    private UpdateResult buildErrorResult(int errorCode) {
         int stringResource = R.string.error_unknown;
         switch (errorCode) {
             case ERROR_USER_SITE_COMBINATION:
@@ -294,11 +1115,19 @@ public class StackExtension extends DashClockExtension {
                 break;
         }
 
-        publishUpdate(new ExtensionData()
-                .visible(mVisible)
-                .icon(R.drawable.ic_stackexchange)
-                .status(getString(R.string.status_none))
-                .expandedTitle(getString(R.string.extension_title))
-                .expandedBody(getString(stringResource)));
+        return new UpdateResult(true, R.drawable.ic_stackexchange, null,
+                getString(R.string.status_none), getString(R.string.extension_title),
+                getString(stringResource), null, 0);
+    }
+
+    private void publishResult(UpdateResult result, Diagnostics.Cycle cycle) {
+        if (result != mLastResult) {
+            mLastResult = result;
+            result.save(this, getSnapshotFile());
+        }
+        long start = System.nanoTime();
+        // Publish the extension data update.
+        publishUpdate(markStale(result).toExtensionData());
+        cycle.recordSince(Diagnostics.PHASE_PUBLISH, start);
     }
 }
@@ -16,6 +16,7 @@
 
 package de.robbers.dashclock.stackextension;
 
+import android.app.AlertDialog;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
@@ -29,6 +30,8 @@ import android.text.TextUtils;
 import android.view.MenuItem;
 
 public class StackSettingsActivity extends PreferenceActivity {
+    private static final String PREF_DIAGNOSTICS = "pref_diagnostics";
+
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         getActionBar().setIcon(R.drawable.ic_stackexchange);
@@ -64,12 +67,40 @@ public class StackSettingsActivity extends PreferenceActivity {
         bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_SITE));
         bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_USER_ID));
         bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_DISPLAY));
+        bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_EXPANDED_POSTS));
+        bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_CACHE_TTL));
+        bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_SITES_MAX_AGE));
+        bindPreferenceSummaryToValue(findPreference(StackExtension.PREF_PUSH_URL));
+        bindPreferenceSummaryToValue(findPreference(ApiClient.PREF_API_URL));
 
         ListPreference sitePreference = (ListPreference) findPreference(StackExtension.PREF_SITE);
-        Sites sites = new Sites(this);
-        sitePreference.setEntries(sites.getNames());
-        sitePreference.setEntryValues(sites.getApiParameters());
+        Sites sites = Sites.getInstance(this);
+        ApiClient.loadApiUrl(this);
+        // the picker shows the local snapshot, a refresh is used next time
+        sites.refreshIfStale(Sites.getMaxAge(this));
+        synchronized (sites) {
+            // names and values have to come from the same catalog
+            sitePreference.setEntries(sites.getNames());
+            sitePreference.setEntryValues(sites.getApiParameters());
+        }
         bindPreferenceSummaryToValue(sitePreference);
+
+        findPreference(PREF_DIAGNOSTICS).setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        showDiagnostics();
+                        return true;
+                    }
+                });
+    }
+
+    private void showDiagnostics() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.pref_diagnostics_title)
+                .setMessage(Diagnostics.getInstance(this).getSummary())
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     /**
@@ -0,0 +1,179 @@
+package de.robbers.dashclock.stackextension;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.apps.dashclock.api.ExtensionData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Immutable outcome of one update, shared by all triggers that were coalesced
+ * into it. A fresh {@link ExtensionData} is built for every publish, since
+ * ExtensionData itself is mutable. The last result is saved as a small file,
+ * so it can be shown right away after a restart.
+ */
+public class UpdateResult {
+    private static final String TAG = "UpdateResult";
+
+    private static final int SNAPSHOT_VERSION = 2;
+
+    public final long timestamp;
+    public final boolean visible;
+    public final int icon;
+    // content URI of a downloaded icon, or null to use the icon resource
+    public final String iconUri;
+    public final String status;
+    public final String expandedTitle;
+    public final String expandedBody;
+    // null if the result has no click action
+    public final String clickUrl;
+    // network account of the user, for the push feed; 0 if unknown or the
+    // result covers several accounts
+    public final long accountId;
+
+    public UpdateResult(boolean visible, int icon, String iconUri, String status,
+            String expandedTitle, String expandedBody, String clickUrl, long accountId) {
+        this(System.currentTimeMillis(), visible, icon, iconUri, status, expandedTitle,
+                expandedBody, clickUrl, accountId);
+    }
+
+    public UpdateResult(long timestamp, boolean visible, int icon, String iconUri,
+            String status, String expandedTitle, String expandedBody, String clickUrl,
+            long accountId) {
+        this.timestamp = timestamp;
+        this.visible = visible;
+        this.icon = icon;
+        this.iconUri = iconUri;
+        this.status = status;
+        this.expandedTitle = expandedTitle;
+        this.expandedBody = expandedBody;
+        this.clickUrl = clickUrl;
+        this.accountId = accountId;
+    }
+
+    /**
+     * Returns a copy with the expanded body replaced, e.g. to mark an old
+     * result as stale.
+     */
+    public UpdateResult withExpandedBody(String body) {
+        return new UpdateResult(timestamp, visible, icon, iconUri, status, expandedTitle, body,
+                clickUrl, accountId);
+    }
+
+    /**
+     * Reads a result saved by {@link #save(Context, File)}, or returns null if there is
+     * none.
+     */
+    public static UpdateResult load(Context context, File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                return null;
+            }
+            long timestamp = in.readLong();
+            boolean visible = in.readBoolean();
+            // resource ids may change with app updates, their names do not
+            int icon = context.getResources().getIdentifier(in.readUTF(), "drawable",
+                    context.getPackageName());
+            if (icon == 0) {
+                icon = R.drawable.ic_stackexchange;
+            }
+            String iconUri = readNullable(in);
+            String status = in.readUTF();
+            String expandedTitle = in.readUTF();
+            String expandedBody = in.readUTF();
+            String clickUrl = readNullable(in);
+            long accountId = in.readLong();
+            return new UpdateResult(timestamp, visible, icon, iconUri, status, expandedTitle,
+                    expandedBody, clickUrl, accountId);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public void save(Context context, File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(timestamp);
+            out.writeBoolean(visible);
+            out.writeUTF(context.getResources().getResourceEntryName(icon));
+            writeNullable(out, iconUri);
+            out.writeUTF(status);
+            out.writeUTF(expandedTitle);
+            out.writeUTF(expandedBody);
+            writeNullable(out, clickUrl);
+            out.writeLong(accountId);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                Log.w(TAG, "Unable to store snapshot");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write snapshot", e);
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "Unable to write snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public ExtensionData toExtensionData() {
+        ExtensionData data = new ExtensionData()
+                .visible(visible)
+                .icon(icon)
+                .status(status)
+                .expandedTitle(expandedTitle)
+                .expandedBody(expandedBody);
+        if (iconUri != null) {
+            data.iconUri(Uri.parse(iconUri));
+        }
+        if (clickUrl != null) {
+            data.clickIntent(new Intent(Intent.ACTION_VIEW, Uri.parse(clickUrl)));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,105 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracked accounts of the multi-account mode, grouped by site. The preference
+ * value is a list of site:userId entries separated by commas or line breaks,
+ * e.g. "stackoverflow:22656, superuser:1234". Malformed entries are ignored.
+ */
+public class Accounts {
+    // the API accepts up to 100 semicolon separated ids per request
+    public static final int MAX_IDS_PER_REQUEST = 100;
+
+    private final Map<String, List<String>> mUserIdsBySite = new LinkedHashMap<String, List<String>>();
+    private int mSize;
+
+    public static Accounts parse(String value) {
+        Accounts accounts = new Accounts();
+        if (value == null || value.length() == 0) {
+            return accounts;
+        }
+        for (String entry : value.split("[,;\\s]+")) {
+            if (entry.length() == 0) {
+                continue;
+            }
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0 || separator == entry.length() - 1) {
+                continue;
+            }
+            String userId = entry.substring(separator + 1);
+            if (!isDigitsOnly(userId)) {
+                continue;
+            }
+            accounts.add(entry.substring(0, separator), userId);
+        }
+        return accounts;
+    }
+
+    private static boolean isDigitsOnly(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(String site, String userId) {
+        List<String> userIds = mUserIdsBySite.get(site);
+        if (userIds == null) {
+            userIds = new ArrayList<String>();
+            mUserIdsBySite.put(site, userIds);
+        }
+        if (!userIds.contains(userId)) {
+            userIds.add(userId);
+            mSize++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public Set<String> getSites() {
+        return Collections.unmodifiableSet(mUserIdsBySite.keySet());
+    }
+
+    public List<String> getUserIds(String site) {
+        List<String> userIds = mUserIdsBySite.get(site);
+        return userIds == null ? Collections.<String>emptyList() : Collections.unmodifiableList(userIds);
+    }
+
+    @Override
+    public String toString() {
+        return mUserIdsBySite.toString();
+    }
+
+    /**
+     * Splits ids into the semicolon separated batches used in vectorized
+     * requests like /users/{ids}.
+     */
+    public static List<String> batch(List<String> ids) {
+        List<String> batches = new ArrayList<String>();
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_REQUEST) {
+            StringBuilder batch = new StringBuilder();
+            for (String id : ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_REQUEST))) {
+                if (batch.length() > 0) {
+                    batch.append(';');
+                }
+                batch.append(id);
+            }
+            batches.add(batch.toString());
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,30 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Thrown for responses that are not a 2xx with items: any other status, or a
+ * body describing an error. Only server errors are worth retrying, except for
+ * throttle violations, which a retry would only prolong.
+ */
+public class ApiErrorException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private static final String ERROR_THROTTLE_VIOLATION = "throttle_violation";
+
+    public final int status;
+    // from the body, null if it has none
+    public final ApiParser.ApiError error;
+
+    public ApiErrorException(int status, ApiParser.ApiError error) {
+        super("Status " + status + (error != null ? ", error " + error : ""));
+        this.status = status;
+        this.error = error;
+    }
+
+    public boolean isRetryable() {
+        return status >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                && (error == null || !ERROR_THROTTLE_VIOLATION.equals(error.name));
+    }
+}
@@ -0,0 +1,376 @@
+package de.robbers.dashclock.stackextension.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for Stack Exchange API responses. Only the fields the extension
+ * displays are read from the token stream, everything else is skipped without
+ * building an object tree.
+ */
+public class ApiParser {
+
+    public static class User {
+        public long userId;
+        public long accountId;
+        public int reputation;
+        public int reputationChangeDay;
+        public int reputationChangeWeek;
+        public int reputationChangeMonth;
+    }
+
+    public static class Site {
+        public String name;
+        public String apiSiteParameter;
+        public String siteUrl;
+        // icon_url, or favicon_url if the site has no large icon
+        public String iconUrl;
+    }
+
+    /**
+     * Fields of the common response wrapper. Values that are not part of the
+     * response stay at -1.
+     */
+    public static class Wrapper {
+        public int quotaRemaining = -1;
+        public int quotaMax = -1;
+        public int backoff = -1;
+        public boolean hasMore;
+    }
+
+    /**
+     * The error_id, error_name and error_message of an error response.
+     */
+    public static class ApiError {
+        public int id;
+        public String name = "";
+        public String message = "";
+
+        @Override
+        public String toString() {
+            return id + " " + name + ": " + message;
+        }
+    }
+
+    public interface ReputationHandler {
+        void onReputationChange(long onDate, long postId, String voteType, int reputationChange,
+                String title);
+    }
+
+    /**
+     * Returns the first user of a /users response, or null if the response
+     * contains no users.
+     */
+    public static User parseUser(Reader in, Wrapper wrapper) throws IOException {
+        final User[] user = new User[1];
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                if (user[0] != null) {
+                    reader.skipValue();
+                    return;
+                }
+                user[0] = readUser(reader);
+            }
+        });
+        return user[0];
+    }
+
+    /**
+     * Returns all users of a /users/{ids} or /users/{ids}/associated response.
+     */
+    public static List<User> parseUsers(Reader in, Wrapper wrapper) throws IOException {
+        final List<User> users = new ArrayList<User>();
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                users.add(readUser(reader));
+            }
+        });
+        return users;
+    }
+
+    /**
+     * Reports every event of a /users/{id}/reputation response to the handler,
+     * in the order of the response.
+     */
+    public static void parseReputation(Reader in, Wrapper wrapper,
+            final ReputationHandler handler) throws IOException {
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                readReputation(reader, handler);
+            }
+        });
+    }
+
+    /**
+     * Returns the sites of one /sites page. Items without an API site
+     * parameter are dropped.
+     */
+    public static List<Site> parseSites(Reader in, Wrapper wrapper) throws IOException {
+        final List<Site> sites = new ArrayList<Site>();
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                Site site = readSite(reader);
+                if (site.apiSiteParameter != null) {
+                    sites.add(site);
+                }
+            }
+        });
+        return sites;
+    }
+
+    /**
+     * Adds the titles of a /posts/{ids} response to titles, by post id. The
+     * titles are HTML encoded. Posts without a title are left out.
+     */
+    public static void parsePostTitles(Reader in, Wrapper wrapper, final Map<Long, String> titles)
+            throws IOException {
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                long postId = 0;
+                String title = "";
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("post_id")) {
+                        postId = nextLong(reader);
+                    } else if (name.equals("title")) {
+                        title = nextString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (postId > 0 && title.length() > 0) {
+                    titles.put(postId, title);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the filter of a /filters/create response, or null if it
+     * contains none.
+     */
+    public static String parseFilter(Reader in, Wrapper wrapper) throws IOException {
+        final String[] filter = new String[1];
+        parseItems(in, wrapper, new ItemParser() {
+            @Override
+            public void parseItem(JsonReader reader) throws IOException {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("filter") && filter[0] == null) {
+                        filter[0] = nextString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+        });
+        return filter[0] == null || filter[0].length() == 0 ? null : filter[0];
+    }
+
+    /**
+     * Returns the error of an error response, or null if the response has
+     * items. Reading stops at the items, so checking a regular response is
+     * cheap. Fails if the response has neither.
+     */
+    public static ApiError parseError(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            ApiError error = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("items")) {
+                    return null;
+                } else if (name.equals("error_id")) {
+                    if (error == null) {
+                        error = new ApiError();
+                    }
+                    error.id = nextInt(reader);
+                } else if (name.equals("error_name")) {
+                    if (error == null) {
+                        error = new ApiError();
+                    }
+                    error.name = nextString(reader);
+                } else if (name.equals("error_message")) {
+                    if (error == null) {
+                        error = new ApiError();
+                    }
+                    error.message = nextString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (error == null) {
+                throw new IOException("Response contains no items");
+            }
+            return error;
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader for unexpected tokens
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private interface ItemParser {
+        void parseItem(JsonReader reader) throws IOException;
+    }
+
+    private static void parseItems(Reader in, Wrapper wrapper, ItemParser itemParser)
+            throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            boolean hasItems = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("items")) {
+                    hasItems = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        itemParser.parseItem(reader);
+                    }
+                    reader.endArray();
+                } else if (wrapper != null && name.equals("quota_remaining")) {
+                    wrapper.quotaRemaining = nextInt(reader);
+                } else if (wrapper != null && name.equals("quota_max")) {
+                    wrapper.quotaMax = nextInt(reader);
+                } else if (wrapper != null && name.equals("backoff")) {
+                    wrapper.backoff = nextInt(reader);
+                } else if (wrapper != null && name.equals("has_more")) {
+                    wrapper.hasMore = reader.nextBoolean();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!hasItems) {
+                throw new IOException("Response contains no items");
+            }
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader for unexpected tokens
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static User readUser(JsonReader reader) throws IOException {
+        User user = new User();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("user_id")) {
+                user.userId = nextLong(reader);
+            } else if (name.equals("account_id")) {
+                user.accountId = nextLong(reader);
+            } else if (name.equals("reputation")) {
+                user.reputation = nextInt(reader);
+            } else if (name.equals("reputation_change_day")) {
+                user.reputationChangeDay = nextInt(reader);
+            } else if (name.equals("reputation_change_week")) {
+                user.reputationChangeWeek = nextInt(reader);
+            } else if (name.equals("reputation_change_month")) {
+                user.reputationChangeMonth = nextInt(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return user;
+    }
+
+    private static Site readSite(JsonReader reader) throws IOException {
+        Site site = new Site();
+        String favicon = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("name")) {
+                site.name = nextString(reader);
+            } else if (name.equals("api_site_parameter")) {
+                site.apiSiteParameter = nextString(reader);
+            } else if (name.equals("site_url")) {
+                site.siteUrl = nextString(reader);
+            } else if (name.equals("icon_url")) {
+                site.iconUrl = nextString(reader);
+            } else if (name.equals("favicon_url")) {
+                favicon = nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (site.iconUrl == null || site.iconUrl.length() == 0) {
+            site.iconUrl = favicon;
+        }
+        return site;
+    }
+
+    private static void readReputation(JsonReader reader, ReputationHandler handler)
+            throws IOException {
+        long onDate = 0;
+        long postId = 0;
+        String voteType = "";
+        int reputationChange = 0;
+        String title = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("on_date")) {
+                onDate = nextLong(reader);
+            } else if (name.equals("post_id")) {
+                postId = nextLong(reader);
+            } else if (name.equals("vote_type")) {
+                voteType = nextString(reader);
+            } else if (name.equals("reputation_change")) {
+                reputationChange = nextInt(reader);
+            } else if (name.equals("title")) {
+                title = nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        handler.onReputationChange(onDate, postId, voteType, reputationChange, title);
+    }
+
+    private static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    private static long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextLong();
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        return reader.nextString();
+    }
+}
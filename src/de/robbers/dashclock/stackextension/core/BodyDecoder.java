@@ -0,0 +1,240 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a response body and decodes it as its Content-Encoding says: gzip,
+ * deflate or identity. The raw and decoded bytes go into buffers that are
+ * kept for the next body, and the inflater is reused too, so decoding a body
+ * allocates nothing once the buffers have grown to the usual response size.
+ * Not thread-safe; use a decoder on one thread at a time and {@link #end()}
+ * it when dropping it.
+ */
+public class BodyDecoder {
+    private static final int INITIAL_SIZE = 16 * 1024;
+    // buffers grown beyond this by a huge response are not kept
+    private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private byte[] mRaw = new byte[INITIAL_SIZE];
+    private int mRawLength;
+    private int mWireLength;
+    private byte[] mBody = new byte[INITIAL_SIZE];
+    private int mLength;
+
+    // created on the first compressed body, for raw deflate data
+    private Inflater mInflater;
+    private final CRC32 mCrc = new CRC32();
+
+    /**
+     * Reads the stream to its end and decodes it. A null or empty encoding is
+     * identity. Fails on unknown encodings and on truncated or corrupt
+     * compressed data.
+     */
+    public void decode(InputStream in, String contentEncoding) throws IOException {
+        mRawLength = 0;
+        mLength = 0;
+        while (true) {
+            if (mRawLength == mRaw.length) {
+                mRaw = grow(mRaw, mRawLength);
+            }
+            int count = in.read(mRaw, mRawLength, mRaw.length - mRawLength);
+            if (count == -1) {
+                break;
+            }
+            mRawLength += count;
+        }
+        mWireLength = mRawLength;
+
+        String encoding = contentEncoding == null ? "" : contentEncoding.trim();
+        if (mRawLength == 0) {
+            // e.g. an error without a body, whatever its encoding
+            return;
+        } else if (encoding.length() == 0 || encoding.equalsIgnoreCase("identity")) {
+            // the raw buffer becomes the body, the old body buffer the next raw one
+            byte[] body = mBody;
+            mBody = mRaw;
+            mLength = mRawLength;
+            mRaw = body;
+            mRawLength = 0;
+        } else if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+            decodeGzip();
+        } else if (encoding.equalsIgnoreCase("deflate")) {
+            decodeDeflate();
+        } else {
+            throw new IOException("Unsupported Content-Encoding " + encoding);
+        }
+    }
+
+    /**
+     * Returns the buffer holding the decoded body in its first
+     * {@link #getLength()} bytes. It is overwritten by the next decode.
+     */
+    public byte[] getBuffer() {
+        return mBody;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Returns the number of bytes read from the stream, before decoding.
+     */
+    public int getWireLength() {
+        return mWireLength;
+    }
+
+    /**
+     * Returns a copy of the decoded body, for keeping it beyond the next
+     * decode.
+     */
+    public byte[] toByteArray() {
+        byte[] body = new byte[mLength];
+        System.arraycopy(mBody, 0, body, 0, mLength);
+        return body;
+    }
+
+    /**
+     * Drops buffers a huge body has grown beyond the usual size.
+     */
+    public void trim() {
+        if (mRaw.length > MAX_RETAINED_SIZE) {
+            mRaw = new byte[INITIAL_SIZE];
+            mRawLength = 0;
+        }
+        if (mBody.length > MAX_RETAINED_SIZE) {
+            mBody = new byte[INITIAL_SIZE];
+            mLength = 0;
+        }
+    }
+
+    /**
+     * Frees the native memory of the inflater. The decoder can still be used,
+     * it creates a new inflater when needed.
+     */
+    public void end() {
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+
+    private void decodeGzip() throws IOException {
+        byte[] raw = mRaw;
+        if (mRawLength < 10 || readShort(raw, 0) != GZIP_MAGIC || raw[2] != 8) {
+            throw new IOException("Not in gzip format");
+        }
+        int flags = raw[3];
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            position += 2 + readShort(raw, checkAvailable(position, 2));
+        }
+        if ((flags & FNAME) != 0) {
+            position = skipString(position);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            position = skipString(position);
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        checkAvailable(position, 0);
+
+        int end = inflate(position);
+        // the trailer holds the CRC-32 and size of the uncompressed data
+        checkAvailable(end, 8);
+        mCrc.reset();
+        mCrc.update(mBody, 0, mLength);
+        if ((int) mCrc.getValue() != readInt(raw, end)) {
+            throw new IOException("Corrupt gzip trailer");
+        }
+        if (mLength != readInt(raw, end + 4)) {
+            throw new IOException("Corrupt gzip trailer");
+        }
+    }
+
+    /**
+     * Decodes zlib data, which the HTTP spec means by deflate, or raw deflate
+     * data, which some servers send instead.
+     */
+    private void decodeDeflate() throws IOException {
+        byte[] raw = mRaw;
+        boolean zlib = mRawLength >= 2 && (raw[0] & 0x0F) == 8
+                && (((raw[0] & 0xFF) << 8) | (raw[1] & 0xFF)) % 31 == 0;
+        // the adler32 checksum at the end is not verified
+        inflate(zlib ? 2 : 0);
+    }
+
+    /**
+     * Inflates the raw deflate data at offset into the body and returns where
+     * it ended in the raw buffer.
+     */
+    private int inflate(int offset) throws IOException {
+        if (mInflater == null) {
+            mInflater = new Inflater(true);
+        }
+        Inflater inflater = mInflater;
+        inflater.reset();
+        inflater.setInput(mRaw, offset, mRawLength - offset);
+        try {
+            while (!inflater.finished()) {
+                if (mLength == mBody.length) {
+                    mBody = grow(mBody, mLength);
+                }
+                int count = inflater.inflate(mBody, mLength, mBody.length - mLength);
+                mLength += count;
+                if (count == 0 && !inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of compressed body");
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Compressed body needs a dictionary");
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed body: " + e.getMessage());
+        }
+        return mRawLength - inflater.getRemaining();
+    }
+
+    private int skipString(int position) throws IOException {
+        while (position < mRawLength && mRaw[position] != 0) {
+            position++;
+        }
+        checkAvailable(position, 1);
+        return position + 1;
+    }
+
+    private int checkAvailable(int position, int count) throws IOException {
+        if (position + count > mRawLength) {
+            throw new EOFException("Unexpected end of gzip body");
+        }
+        return position;
+    }
+
+    private static byte[] grow(byte[] buffer, int length) {
+        byte[] grown = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        return grown;
+    }
+
+    private static int readShort(byte[] buffer, int position) {
+        return (buffer[position] & 0xFF) | ((buffer[position + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] buffer, int position) {
+        return readShort(buffer, position) | (readShort(buffer, position + 2) << 16);
+    }
+}
@@ -0,0 +1,59 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class CalendarUtils {
+
+    public static final long ONE_DAY = 86400000; // 24 * 60 * 60 * 1000;
+
+    public static long getToday() {
+        return getToday(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the GMT midnight before the given time.
+     */
+    public static long getToday(long now) {
+        long millisSinceGmtMidnight = now % ONE_DAY;
+        return now - millisSinceGmtMidnight;
+    }
+
+    public static long getTomorrow() {
+        return getTomorrow(System.currentTimeMillis());
+    }
+
+    public static long getTomorrow(long now) {
+        return getToday(now) + ONE_DAY;
+    }
+
+    public static long getOneWeekAgo() {
+        long today = getToday();
+        long oneWeekAgo = today - 7 * ONE_DAY;
+        return oneWeekAgo;
+    }
+
+    /**
+     * Returns the local midnight before the given time in the time zone.
+     */
+    public static long getStartOfDay(TimeZone zone, long time) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the number of local days since the epoch, so that all times of
+     * one calendar day in the time zone share a number, also across DST
+     * changes.
+     */
+    public static long getDayNumber(TimeZone zone, long time) {
+        long local = time + zone.getOffset(time);
+        long day = local / ONE_DAY;
+        return local < 0 && local % ONE_DAY != 0 ? day - 1 : day;
+    }
+}
@@ -0,0 +1,215 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-level (memory and disk) cache for Stack Exchange API responses. Entries
+ * remember when they were fetched, so callers can decide between a fresh hit,
+ * a refetch, or serving a stale payload when the network is unavailable. Both
+ * levels evict the least recently used entries first; the disk cache is
+ * bounded by size and entry count.
+ */
+public class FileResponseCache {
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    private static final int MEMORY_ENTRIES = 16;
+    // every page of a reputation sync is an entry, so a first sync of a busy
+    // account alone can take a few hundred
+    private static final int DISK_ENTRIES = 256;
+    private static final long DISK_BYTES = 4 * 1024 * 1024;
+
+    private final File mDirectory;
+    // in access order, so the eldest entry is the least recently used
+    private final Map<String, Entry> mMemoryCache =
+            new LinkedHashMap<String, Entry>(MEMORY_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, FileResponseCache.Entry> eldest) {
+                    return size() > MEMORY_ENTRIES;
+                }
+            };
+
+    public FileResponseCache(File directory) {
+        mDirectory = directory;
+    }
+
+    public synchronized Entry get(String key) {
+        Entry entry = mMemoryCache.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                mMemoryCache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    public synchronized Entry put(String key, byte[] payload) {
+        Entry entry = new Entry(payload, System.currentTimeMillis());
+        mMemoryCache.put(key, entry);
+        writeToDisk(key, entry);
+        return entry;
+    }
+
+    /**
+     * Drops all entries from memory and disk.
+     */
+    public synchronized void clear() {
+        mMemoryCache.clear();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                log("Unable to delete cache entry " + file);
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!key.equals(in.readUTF())) {
+                // hash collision, the file belongs to another key
+                return null;
+            }
+            long timestamp = in.readLong();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            // the modification time orders the entries for eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(payload, timestamp);
+        } catch (IOException e) {
+            log("Unable to read cache entry " + key + ": " + e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            log("Unable to create cache directory " + mDirectory);
+            return;
+        }
+        File file = getFile(key);
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeUTF(key);
+            out.writeLong(entry.timestamp);
+            out.writeInt(entry.payload.length);
+            out.write(entry.payload);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                log("Unable to store cache entry " + key);
+            }
+        } catch (IOException e) {
+            log("Unable to write cache entry " + key + ": " + e);
+        } finally {
+            closeQuietly(out);
+        }
+        trimDisk();
+    }
+
+    /**
+     * Deletes the least recently used files until the disk cache is within its
+     * entry and size bounds.
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (files.length <= DISK_ENTRIES && size <= DISK_BYTES) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            // read once, the comparator must not see the times change
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = lastModified[lhs];
+                long r = lastModified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        int count = files.length;
+        int evicted = 0;
+        for (int i = 0; i < order.length && (count > DISK_ENTRIES || size > DISK_BYTES); i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                count--;
+                size -= length;
+                evicted++;
+            }
+        }
+        log("Evicted " + evicted + " cache entries");
+    }
+
+    /**
+     * Logs what happened to an entry; does nothing unless overridden.
+     */
+    protected void log(String message) {
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public static class Entry {
+        public final byte[] payload;
+        public final long timestamp;
+
+        public Entry(byte[] payload, long timestamp) {
+            this.payload = payload;
+            this.timestamp = timestamp;
+        }
+
+        public boolean isFresh(long ttl) {
+            long age = System.currentTimeMillis() - timestamp;
+            return age >= 0 && age < ttl;
+        }
+    }
+}
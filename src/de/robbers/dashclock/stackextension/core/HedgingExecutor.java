@@ -0,0 +1,311 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes API GETs within a latency budget. A failed attempt is retried after
+ * an exponential backoff with full jitter while the budget allows. An attempt
+ * that takes longer than the 95th percentile of the endpoint's recent
+ * latencies gets a hedged twin: whichever answers first wins and the other is
+ * aborted. This is only safe because the API requests are idempotent GETs.
+ * Retries and hedges have to pass the {@link Gate} like any other request.
+ */
+public class HedgingExecutor {
+    private static final long BASE_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 8 * 1000;
+
+    // latencies kept per endpoint, and needed before hedging starts
+    private static final int LATENCY_SAMPLES = 32;
+    private static final int MIN_HEDGE_SAMPLES = 8;
+    private static final long MIN_HEDGE_DELAY = 250;
+
+    /**
+     * How a request to an endpoint is executed.
+     */
+    public static class Policy {
+        // for all attempts together, in ms
+        public final long budget;
+        public final int maxRetries;
+        public final boolean hedge;
+
+        public Policy(long budget, int maxRetries, boolean hedge) {
+            this.budget = budget;
+            this.maxRetries = maxRetries;
+            this.hedge = hedge;
+        }
+    }
+
+    /**
+     * Decides whether another request to the endpoint may be made.
+     */
+    public interface Gate {
+        boolean acquire(String endpoint);
+    }
+
+    /**
+     * One attempt of a request, which can be aborted from another thread.
+     */
+    public interface Attempt {
+        /**
+         * Returns the body of a 2xx response with items and fails with an
+         * {@link ApiErrorException} for anything else.
+         */
+        byte[] call() throws IOException;
+
+        void abort();
+    }
+
+    public interface Transport {
+        /**
+         * Returns a new attempt of a GET of the URI, or null if the URI is
+         * malformed.
+         */
+        Attempt open(String uri);
+    }
+
+    /**
+     * Is told about the retries, hedges and failures of a request.
+     */
+    public interface Listener {
+        void recordRetry();
+
+        void recordHedge(boolean won);
+
+        void recordError();
+    }
+
+    private final ExecutorService mExecutor;
+    private final Gate mGate;
+    private final Map<String, Latencies> mLatencies = new HashMap<String, Latencies>();
+    private final Random mRandom = new Random();
+
+    public HedgingExecutor(ExecutorService executor, Gate gate) {
+        mExecutor = executor;
+        mGate = gate;
+    }
+
+    /**
+     * Returns the body of the request, or null if it failed within the budget
+     * or the calling thread was interrupted. Error responses are never
+     * returned, so callers fall back to what they have; only server errors
+     * are retried. The listener may be null.
+     */
+    public byte[] execute(String endpoint, String uri, Policy policy, Transport transport,
+            Listener listener) {
+        long deadline = now() + policy.budget;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return executeHedged(endpoint, uri, policy, transport, listener, deadline);
+            } catch (ApiErrorException e) {
+                log(endpoint + ": " + e.getMessage());
+                if (!e.isRetryable()) {
+                    break;
+                }
+            } catch (IOException e) {
+                log(endpoint + ": " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            if (attempt >= policy.maxRetries) {
+                break;
+            }
+            long delay = getBackoff(attempt);
+            if (deadline - now() <= delay) {
+                log(endpoint + ": no budget left for a retry");
+                break;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (!mGate.acquire(endpoint)) {
+                break;
+            }
+            log(endpoint + ": retry " + (attempt + 1) + " after " + delay + "ms");
+            if (listener != null) {
+                listener.recordRetry();
+            }
+        }
+        if (listener != null) {
+            listener.recordError();
+        }
+        return null;
+    }
+
+    /**
+     * Logs what happened to a request; does nothing unless overridden.
+     */
+    protected void log(String message) {
+    }
+
+    /**
+     * Runs one attempt, plus a hedged twin if it is slow, and returns the
+     * first body. Fails if both attempts failed or the budget ran out.
+     */
+    private byte[] executeHedged(String endpoint, String uri, Policy policy,
+            Transport transport, Listener listener, long deadline)
+            throws IOException, InterruptedException {
+        TimedAttempt first = open(endpoint, uri, transport);
+        CompletionService<byte[]> service = new ExecutorCompletionService<byte[]>(mExecutor);
+        Future<byte[]> firstFuture = service.submit(first);
+
+        TimedAttempt hedge = null;
+        Future<byte[]> hedgeFuture = null;
+        Future<byte[]> done;
+        try {
+            long hedgeDelay = policy.hedge ? getHedgeDelay(endpoint) : -1;
+            if (hedgeDelay >= 0 && hedgeDelay < deadline - now()) {
+                done = service.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                if (done == null && mGate.acquire(endpoint)) {
+                    log(endpoint + ": no answer after " + hedgeDelay + "ms, hedging");
+                    hedge = open(endpoint, uri, transport);
+                    hedgeFuture = service.submit(hedge);
+                }
+            } else {
+                done = null;
+            }
+
+            int pending = hedge == null ? 1 : 2;
+            while (true) {
+                if (done == null) {
+                    done = service.poll(Math.max(0, deadline - now()), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        throw new IOException("Latency budget of " + policy.budget
+                                + "ms exceeded");
+                    }
+                }
+                pending--;
+                try {
+                    byte[] body = done.get();
+                    if (hedge != null && listener != null) {
+                        listener.recordHedge(done == hedgeFuture);
+                    }
+                    return body;
+                } catch (ExecutionException e) {
+                    if (pending == 0) {
+                        if (hedge != null && listener != null) {
+                            listener.recordHedge(false);
+                        }
+                        Throwable cause = e.getCause();
+                        throw cause instanceof IOException ? (IOException) cause
+                                : new IOException(cause);
+                    }
+                }
+                done = null;
+            }
+        } finally {
+            // the loser, or everything if the budget ran out; finished
+            // attempts have already handed their connection back
+            if (!firstFuture.isDone()) {
+                first.attempt.abort();
+            }
+            if (hedge != null && !hedgeFuture.isDone()) {
+                hedge.attempt.abort();
+            }
+        }
+    }
+
+    private TimedAttempt open(String endpoint, String uri, Transport transport)
+            throws IOException {
+        Attempt attempt = transport.open(uri);
+        if (attempt == null) {
+            throw new IOException("Malformed URI " + uri);
+        }
+        return new TimedAttempt(endpoint, attempt);
+    }
+
+    /**
+     * Returns the delay before retry number attempt + 1: uniformly random up
+     * to an exponentially growing cap, so clients that failed together do not
+     * retry together.
+     */
+    private long getBackoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 16));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * cap);
+        }
+    }
+
+    /**
+     * Returns how long to wait for an attempt before hedging it, or -1 if too
+     * few latencies of the endpoint are known.
+     */
+    private synchronized long getHedgeDelay(String endpoint) {
+        Latencies latencies = mLatencies.get(endpoint);
+        if (latencies == null || latencies.count < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return Math.max(MIN_HEDGE_DELAY, latencies.getPercentile(95));
+    }
+
+    private synchronized void recordLatency(String endpoint, long millis) {
+        Latencies latencies = mLatencies.get(endpoint);
+        if (latencies == null) {
+            latencies = new Latencies();
+            mLatencies.put(endpoint, latencies);
+        }
+        latencies.add(millis);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * The last latencies of successful attempts to one endpoint.
+     */
+    private static class Latencies {
+        final long[] samples = new long[LATENCY_SAMPLES];
+        int count;
+        int next;
+
+        void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        long getPercentile(int percentile) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    /**
+     * Runs an attempt and records its latency if it succeeds.
+     */
+    private class TimedAttempt implements Callable<byte[]> {
+        final String endpoint;
+        final Attempt attempt;
+
+        TimedAttempt(String endpoint, Attempt attempt) {
+            this.endpoint = endpoint;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            long start = now();
+            byte[] body = attempt.call();
+            recordLatency(endpoint, now() - start);
+            return body;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package de.robbers.dashclock.stackextension.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+
+/**
+ * Subscription to one topic of the Stack Exchange realtime websocket feed, on
+ * its own thread. Messages are JSON objects of an action and its data: the
+ * action is the topic for notifications and "hb" for heartbeats, which are
+ * echoed to keep the connection alive. A lost connection is reopened with
+ * exponential backoff until {@link #stop()} is called.
+ */
+public class RealtimeFeed implements Runnable {
+    public static final String DEFAULT_URL = "wss://qa.sockets.stackexchange.com/";
+    // the feed only accepts connections from Stack Exchange pages
+    private static final String ORIGIN = "https://stackexchange.com";
+
+    private static final String ACTION_HEARTBEAT = "hb";
+
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    // heartbeats arrive every few minutes, longer silence means a dead connection
+    private static final int READ_TIMEOUT = 10 * 60 * 1000;
+
+    private static final long MIN_BACKOFF = 5 * 1000;
+    private static final long MAX_BACKOFF = 10 * 60 * 1000;
+    // a connection that lasted this long resets the backoff
+    private static final long STABLE_CONNECTION = 60 * 1000;
+
+    public interface Listener {
+        void onConnected(RealtimeFeed feed);
+
+        /**
+         * Called on the feed thread for every notification on the topic.
+         */
+        void onMessage(RealtimeFeed feed, String data);
+
+        void onDisconnected(RealtimeFeed feed, IOException e);
+    }
+
+    private final URI mUri;
+    private final String mTopic;
+    private final Listener mListener;
+    private final Thread mThread;
+    private volatile boolean mStopped;
+    private volatile WebSocket mSocket;
+
+    public RealtimeFeed(URI uri, String topic, Listener listener) {
+        mUri = uri;
+        mTopic = topic;
+        mListener = listener;
+        mThread = new Thread(this, "RealtimeFeed");
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Returns the topic of the top bar notifications of a network account,
+     * which include its reputation changes on all sites.
+     */
+    public static String getTopBarTopic(long accountId) {
+        return accountId + "-topbar";
+    }
+
+    public URI getUri() {
+        return mUri;
+    }
+
+    public String getTopic() {
+        return mTopic;
+    }
+
+    public boolean isConnected() {
+        WebSocket socket = mSocket;
+        return socket != null && !socket.isClosed();
+    }
+
+    public void start() {
+        mThread.start();
+    }
+
+    public void stop() {
+        mStopped = true;
+        mThread.interrupt();
+        WebSocket socket = mSocket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF;
+        while (!mStopped) {
+            long connected = 0;
+            IOException error = null;
+            try {
+                mSocket = WebSocket.connect(mUri, ORIGIN, CONNECT_TIMEOUT);
+                if (mStopped) {
+                    break;
+                }
+                mSocket.sendText(mTopic);
+                connected = System.currentTimeMillis();
+                mListener.onConnected(this);
+                receive(mSocket);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                // e.g. a malformed frame or message; the thread must not die
+                e.printStackTrace();
+                error = new IOException(e.toString());
+            } finally {
+                if (mSocket != null) {
+                    mSocket.close();
+                    mSocket = null;
+                }
+            }
+            if (mStopped) {
+                break;
+            }
+            mListener.onDisconnected(this, error);
+
+            if (connected > 0 && System.currentTimeMillis() - connected >= STABLE_CONNECTION) {
+                backoff = MIN_BACKOFF;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    private void receive(WebSocket socket) throws IOException {
+        socket.setReadTimeout(READ_TIMEOUT);
+        String message;
+        while (!mStopped && (message = socket.receive()) != null) {
+            String[] parsed = parse(message);
+            if (parsed == null) {
+                continue;
+            }
+            if (ACTION_HEARTBEAT.equals(parsed[0])) {
+                socket.sendText(parsed[1] != null ? parsed[1] : ACTION_HEARTBEAT);
+            } else if (mTopic.equals(parsed[0])) {
+                mListener.onMessage(this, parsed[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the action and data of a message, or null if it is not a JSON
+     * object. Data that is not a string is returned as null.
+     */
+    static String[] parse(String message) {
+        String action = null;
+        String data = null;
+        JsonReader reader = new JsonReader(new StringReader(message));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("action") && reader.peek() == JsonToken.STRING) {
+                    action = reader.nextString();
+                } else if (name.equals("data") && reader.peek() == JsonToken.STRING) {
+                    data = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        return new String[] {
+                action, data
+        };
+    }
+}
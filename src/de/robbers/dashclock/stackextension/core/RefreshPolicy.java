@@ -0,0 +1,134 @@
+package de.robbers.dashclock.stackextension.core;
+
+/**
+ * The timing rules of the refresh scheduler. The minimum time between fetches
+ * follows how often the reputation actually changes: the mean time between
+ * changes is learned from the reputation events and the interval is a
+ * fraction of it, clamped to sane bounds. Metered connections stretch the
+ * interval further, and while push notifications are connected, polling is
+ * only a slow heartbeat. Failed fetches are retried with an exponential
+ * backoff. The state is kept in public fields, so it can be persisted as is.
+ */
+public class RefreshPolicy {
+    public static final long MIN_INTERVAL = 5 * 60 * 1000;
+    public static final long MAX_INTERVAL = 3 * 60 * 60 * 1000;
+    public static final long DEFAULT_MEAN_INTERVAL = 60 * 60 * 1000;
+    // polls while push notifications report the changes
+    public static final long HEARTBEAT_INTERVAL = MAX_INTERVAL;
+    // wait after the first failed fetch, doubled with every further failure
+    public static final long RETRY_DELAY = 60 * 1000;
+
+    // weight of a new sample in the moving average of change intervals
+    private static final float SMOOTHING = 0.3f;
+    // fetches per expected reputation change
+    private static final int FETCHES_PER_CHANGE = 4;
+    private static final int METERED_FACTOR = 3;
+
+    // the data (site, user, display...) of the last successful fetch
+    public String signature;
+    public long lastFetch;
+    public long lastChange;
+    public long meanInterval = DEFAULT_MEAN_INTERVAL;
+    public String failedSignature;
+    public int failures;
+    public long lastFailure;
+
+    /**
+     * Returns the minimum time between two fetches, in milliseconds.
+     */
+    public long getInterval(long now, boolean metered, boolean pushConnected) {
+        if (pushConnected) {
+            return HEARTBEAT_INTERVAL;
+        }
+        // a long quiet period means changes are rarer than learned so far
+        long expected = lastChange > 0 ? Math.max(meanInterval, now - lastChange) : meanInterval;
+
+        long interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, expected / FETCHES_PER_CHANGE));
+        if (metered) {
+            interval *= METERED_FACTOR;
+        }
+        return interval;
+    }
+
+    /**
+     * Returns how long to wait after the given number of failed fetches in a
+     * row, in milliseconds, at most the maximum interval.
+     */
+    public static long getRetryDelay(int failures) {
+        if (failures <= 0) {
+            return 0;
+        }
+        // the shift is bounded long before the delay could overflow
+        return Math.min(MAX_INTERVAL, RETRY_DELAY << Math.min(failures - 1, 16));
+    }
+
+    /**
+     * Returns how long a fetch of the given data has to wait for the retry
+     * backoff, in milliseconds, 0 if it does not back off.
+     */
+    public long getRetryRemaining(String signature, long now) {
+        if (!signature.equals(failedSignature)) {
+            return 0;
+        }
+        long sinceFailure = now - lastFailure;
+        long retryDelay = getRetryDelay(failures);
+        return sinceFailure >= 0 && sinceFailure < retryDelay ? retryDelay - sinceFailure : 0;
+    }
+
+    /**
+     * Returns how long a fetch of the given data has to wait for the interval
+     * since the last fetch, in milliseconds, 0 if the data was not fetched
+     * last.
+     */
+    public long getIntervalRemaining(String signature, long now, boolean metered,
+            boolean pushConnected) {
+        if (!signature.equals(this.signature)) {
+            return 0;
+        }
+        long elapsed = now - lastFetch;
+        long interval = getInterval(now, metered, pushConnected);
+        return elapsed >= 0 && elapsed < interval ? interval - elapsed : 0;
+    }
+
+    public void onFetched(String signature, long now) {
+        if (!signature.equals(this.signature)) {
+            // another user or site, what was learned does not apply anymore
+            lastChange = 0;
+            meanInterval = DEFAULT_MEAN_INTERVAL;
+        }
+        this.signature = signature;
+        lastFetch = now;
+        failedSignature = null;
+        failures = 0;
+        lastFailure = 0;
+    }
+
+    /**
+     * Records a fetch that brought no result. The last successful fetch stays
+     * as it was, so the data is refetched as soon as the backoff allows.
+     */
+    public void onFetchFailed(String signature, long now) {
+        if (!signature.equals(failedSignature)) {
+            failures = 0;
+        }
+        failedSignature = signature;
+        failures++;
+        lastFailure = now;
+    }
+
+    /**
+     * Feeds the date of the newest reputation change (in milliseconds) into the
+     * learned change interval. Returns false for dates that are not newer than
+     * the last one, which are ignored.
+     */
+    public boolean onReputationChanged(long date) {
+        if (date <= lastChange) {
+            return false;
+        }
+        if (lastChange > 0) {
+            meanInterval = (long) ((1 - SMOOTHING) * meanInterval + SMOOTHING * (date - lastChange));
+        }
+        lastChange = date;
+        return true;
+    }
+}
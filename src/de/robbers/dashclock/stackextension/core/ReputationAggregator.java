@@ -0,0 +1,187 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.Arrays;
+
+/**
+ * Sums reputation events per post in a single pass and selects the posts with
+ * the largest absolute change. Sums are kept in an open-addressing long to int
+ * map, the top posts are picked with a bounded min-heap, so aggregating a month
+ * of events neither boxes values nor sorts all posts.
+ */
+public class ReputationAggregator implements ApiParser.ReputationHandler {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int mMaxPosts;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int[] mOrder;
+    private String[] mTitles;
+    private int mSize;
+
+    public static class Post {
+        public final long postId;
+        public final int reputationChange;
+        public final String title;
+
+        Post(long postId, int reputationChange, String title) {
+            this.postId = postId;
+            this.reputationChange = reputationChange;
+            this.title = title;
+        }
+    }
+
+    public ReputationAggregator(int maxPosts) {
+        mMaxPosts = maxPosts;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void onReputationChange(long onDate, long postId, String voteType, int reputationChange,
+            String title) {
+        if (reputationChange == 0) {
+            return;
+        }
+        int slot = findSlot(mKeys, postId);
+        if (mKeys[slot] == EMPTY) {
+            mKeys[slot] = postId;
+            mTitles[slot] = title;
+            mOrder[slot] = mSize++;
+            if (mSize * 2 > mKeys.length) {
+                grow();
+                slot = findSlot(mKeys, postId);
+            }
+        }
+        mValues[slot] += reputationChange;
+    }
+
+    public int getPostCount() {
+        return mSize;
+    }
+
+    public int getReputationChange(long postId) {
+        int slot = findSlot(mKeys, postId);
+        return mKeys[slot] == EMPTY ? 0 : mValues[slot];
+    }
+
+    /**
+     * Returns up to maxPosts posts with a non-zero sum, ordered by descending
+     * absolute change. Ties go to the post that appeared first.
+     */
+    public Post[] getTopPosts() {
+        int[] heap = new int[mMaxPosts];
+        int heapSize = 0;
+        for (int slot = 0; slot < mKeys.length; slot++) {
+            if (mKeys[slot] == EMPTY || mValues[slot] == 0) {
+                continue;
+            }
+            if (heapSize < mMaxPosts) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (mMaxPosts > 0 && isWeaker(heap[0], slot)) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        // drain the min-heap from the back to get descending order
+        Post[] posts = new Post[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            int slot = heap[0];
+            posts[i] = new Post(mKeys[slot], mValues[slot], mTitles[slot]);
+            heap[0] = heap[i];
+            siftDown(heap, i);
+        }
+        return posts;
+    }
+
+    /**
+     * Returns true if the post in slot a ranks below the post in slot b.
+     */
+    private boolean isWeaker(int a, int b) {
+        int absA = Math.abs(mValues[a]);
+        int absB = Math.abs(mValues[b]);
+        if (absA != absB) {
+            return absA < absB;
+        }
+        return mOrder[a] > mOrder[b];
+    }
+
+    private void siftUp(int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWeaker(heap[index], heap[parent])) {
+                break;
+            }
+            swap(heap, index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int child = left;
+            int right = left + 1;
+            if (right < size && isWeaker(heap[right], heap[left])) {
+                child = right;
+            }
+            if (!isWeaker(heap[child], heap[index])) {
+                break;
+            }
+            swap(heap, index, child);
+            index = child;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mOrder = new int[capacity];
+        mTitles = new String[capacity];
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        int[] order = mOrder;
+        String[] titles = mTitles;
+        allocate(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            int slot = findSlot(mKeys, keys[i]);
+            mKeys[slot] = keys[i];
+            mValues[slot] = values[i];
+            mOrder[slot] = order[i];
+            mTitles[slot] = titles[i];
+        }
+    }
+
+    private static int findSlot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return (h * 0x9E3779B9) ^ (h >>> 16);
+    }
+}
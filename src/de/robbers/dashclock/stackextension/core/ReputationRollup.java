@@ -0,0 +1,135 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Daily reputation sums in a time zone, kept in a ring of int buckets indexed
+ * by local day number. It is filled from reputation events and answers today,
+ * yesterday, this week, this month and rolling N day sums in O(1) from prefix
+ * sums that are rebuilt once after new events arrived.
+ */
+public class ReputationRollup implements ApiParser.ReputationHandler {
+    private final TimeZone mZone;
+    private final int[] mBuckets;
+    // local day number of today, and first days of the week and month
+    private final long mToday;
+    private final long mWeekStart;
+    private final long mMonthStart;
+    private final long mTodayStartMillis;
+    private final long mWeekStartMillis;
+    private final long mMonthStartMillis;
+
+    // mPrefix[i] is the sum of the i oldest days of the ring
+    private final int[] mPrefix;
+    private boolean mDirty;
+
+    /**
+     * @param days number of days kept, including today
+     * @param firstDayOfWeek as in {@link Calendar#getFirstDayOfWeek()}
+     */
+    public ReputationRollup(TimeZone zone, int firstDayOfWeek, int days, long now) {
+        mZone = zone;
+        mBuckets = new int[days];
+        mPrefix = new int[days + 1];
+        mToday = CalendarUtils.getDayNumber(zone, now);
+
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(CalendarUtils.getStartOfDay(zone, now));
+        mTodayStartMillis = calendar.getTimeInMillis();
+        int daysSinceWeekStart = (calendar.get(Calendar.DAY_OF_WEEK) - firstDayOfWeek + 7) % 7;
+        int daysSinceMonthStart = calendar.get(Calendar.DAY_OF_MONTH) - 1;
+        mWeekStart = mToday - daysSinceWeekStart;
+        mMonthStart = mToday - daysSinceMonthStart;
+        calendar.add(Calendar.DAY_OF_MONTH, -daysSinceWeekStart);
+        mWeekStartMillis = calendar.getTimeInMillis();
+        calendar.setTimeInMillis(mTodayStartMillis);
+        calendar.add(Calendar.DAY_OF_MONTH, -daysSinceMonthStart);
+        mMonthStartMillis = calendar.getTimeInMillis();
+    }
+
+    @Override
+    public void onReputationChange(long onDate, long postId, String voteType,
+            int reputationChange, String title) {
+        add(onDate * 1000, reputationChange);
+    }
+
+    public void add(long time, int reputationChange) {
+        long day = CalendarUtils.getDayNumber(mZone, time);
+        if (day > mToday || day <= mToday - mBuckets.length) {
+            return;
+        }
+        mBuckets[index(day)] += reputationChange;
+        mDirty = true;
+    }
+
+    private int index(long day) {
+        return (int) (((day % mBuckets.length) + mBuckets.length) % mBuckets.length);
+    }
+
+    /**
+     * Returns the sum of the days from first to last, inclusive, clipped to
+     * the days kept.
+     */
+    private int sum(long first, long last) {
+        long oldest = mToday - mBuckets.length + 1;
+        first = Math.max(first, oldest);
+        last = Math.min(last, mToday);
+        if (first > last) {
+            return 0;
+        }
+        if (mDirty) {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mPrefix[i + 1] = mPrefix[i] + mBuckets[index(oldest + i)];
+            }
+            mDirty = false;
+        }
+        return mPrefix[(int) (last - oldest) + 1] - mPrefix[(int) (first - oldest)];
+    }
+
+    public int getDays() {
+        return mBuckets.length;
+    }
+
+    /**
+     * Returns the sum of the day daysAgo days before today.
+     */
+    public int getDay(int daysAgo) {
+        return sum(mToday - daysAgo, mToday - daysAgo);
+    }
+
+    public int getToday() {
+        return getDay(0);
+    }
+
+    public int getYesterday() {
+        return getDay(1);
+    }
+
+    public int getThisWeek() {
+        return sum(mWeekStart, mToday);
+    }
+
+    public int getThisMonth() {
+        return sum(mMonthStart, mToday);
+    }
+
+    /**
+     * Returns the sum of the last days, including today.
+     */
+    public int getLastDays(int days) {
+        return sum(mToday - days + 1, mToday);
+    }
+
+    public long getStartOfToday() {
+        return mTodayStartMillis;
+    }
+
+    public long getStartOfWeek() {
+        return mWeekStartMillis;
+    }
+
+    public long getStartOfMonth() {
+        return mMonthStartMillis;
+    }
+}
@@ -0,0 +1,164 @@
+package de.robbers.dashclock.stackextension.core;
+
+/**
+ * Plans which reputation events to fetch so that a store covers a window of
+ * event dates. New events come first, then the part of the window older than
+ * the synced range, within a number of page requests. What has been synced is
+ * returned after every sync, so a busy account is completed over several
+ * syncs instead of starting over each time. All dates are in seconds.
+ */
+public class ReputationSync {
+
+    /**
+     * Fetches pages of reputation events, newest first, into the store.
+     */
+    public interface Pager {
+        /**
+         * Returns the page (from 1) of the events between fetchFrom and
+         * fetchTo, or null if it could not be fetched or the sync was
+         * cancelled.
+         */
+        Page fetchPage(long fetchFrom, long fetchTo, int page);
+    }
+
+    public static class Page {
+        // the dates of the newest and oldest event, 0 and Long.MAX_VALUE
+        // for a page without events
+        public final long lastSeen;
+        public final long oldestSeen;
+        public final boolean hasMore;
+
+        public Page(long lastSeen, long oldestSeen, boolean hasMore) {
+            this.lastSeen = lastSeen;
+            this.oldestSeen = oldestSeen;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * A range of event dates the store holds all events of.
+     */
+    public static class Range {
+        public final long from;
+        public final long until;
+
+        public Range(long from, long until) {
+            this.from = from;
+            this.until = until;
+        }
+
+        public boolean covers(long date) {
+            return from <= date && date <= until;
+        }
+    }
+
+    public static class Result {
+        // what the store holds now, null if nothing could be fetched and the
+        // store is as it was
+        public final Range synced;
+        // the store covers the whole window
+        public final boolean covered;
+        // the date of the newest event seen, 0 if none
+        public final long lastSeen;
+
+        Result(Range synced, boolean covered, long lastSeen) {
+            this.synced = synced;
+            this.covered = covered;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    /**
+     * Events seen while paging through one date range, newest first.
+     */
+    static class PageRange {
+        long lastSeen;
+        long oldestSeen = Long.MAX_VALUE;
+        int pages;
+        // all events of the range have been seen
+        boolean complete;
+    }
+
+    /**
+     * Fetches the events missing from the window [from, to] with at most
+     * maxPages pages. The synced range from the last sync, if any, is only
+     * useful if it reaches into the window. The new events stop early once an
+     * event before cutoff has been seen, since older events do not count for
+     * the top posts of the displayed period; the rest of the window is left to
+     * the backfill.
+     */
+    public static Result sync(Pager pager, int maxPages, long from, long to, long cutoff,
+            Range synced) {
+        // the synced range is [syncedFrom, syncedUntil]
+        long syncedFrom;
+        long syncedUntil;
+        // what the backfill has to reach, and what is synced once it does
+        long backfillFrom = from;
+        long backfilledFrom = from;
+        PageRange newer;
+        if (synced != null && synced.until >= from) {
+            newer = fetchRange(pager, synced.until, to, maxPages, cutoff);
+            if (newer.complete) {
+                syncedFrom = synced.from;
+                syncedUntil = Math.max(synced.until, newer.lastSeen);
+            } else {
+                // only the new events count as synced until the gap between
+                // them and the synced range is filled
+                syncedFrom = newer.oldestSeen + 1;
+                syncedUntil = newer.lastSeen;
+                backfillFrom = synced.until;
+                backfilledFrom = synced.from;
+            }
+        } else {
+            newer = fetchRange(pager, from, to, maxPages, cutoff);
+            syncedFrom = newer.complete ? from : newer.oldestSeen + 1;
+            syncedUntil = Math.max(from, newer.lastSeen);
+        }
+        if (!newer.complete && newer.oldestSeen == Long.MAX_VALUE) {
+            // nothing fetched, the store is as it was
+            return new Result(null, synced != null && synced.covers(from), 0);
+        }
+
+        // backfill the older part of the window with the remaining pages, the
+        // next sync continues where this one stopped
+        int pages = maxPages - newer.pages;
+        if (syncedFrom > from && pages > 0 && !Thread.currentThread().isInterrupted()) {
+            PageRange older = fetchRange(pager, backfillFrom, syncedFrom, pages,
+                    Long.MIN_VALUE);
+            if (older.complete) {
+                syncedFrom = backfilledFrom;
+            } else if (older.oldestSeen != Long.MAX_VALUE) {
+                syncedFrom = Math.min(syncedFrom, older.oldestSeen + 1);
+            }
+        }
+        return new Result(new Range(syncedFrom, syncedUntil), syncedFrom <= from,
+                newer.lastSeen);
+    }
+
+    /**
+     * Pages through the events between fetchFrom and fetchTo, for at most
+     * maxPages pages, and stops early once an event before cutoff has been
+     * seen.
+     */
+    static PageRange fetchRange(Pager pager, long fetchFrom, long fetchTo, int maxPages,
+            long cutoff) {
+        PageRange range = new PageRange();
+        for (int page = 1; page <= maxPages; page++) {
+            Page result = pager.fetchPage(fetchFrom, fetchTo, page);
+            if (result == null) {
+                break;
+            }
+            range.pages++;
+            range.lastSeen = Math.max(range.lastSeen, result.lastSeen);
+            range.oldestSeen = Math.min(range.oldestSeen, result.oldestSeen);
+            if (!result.hasMore) {
+                range.complete = true;
+                break;
+            }
+            if (range.oldestSeen < cutoff) {
+                break;
+            }
+        }
+        return range;
+    }
+}
@@ -0,0 +1,136 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The rules of the request governor. It records quota_remaining, quota_max
+ * and backoff from every response, keeps endpoints that asked for a backoff
+ * closed until the window has passed, and paces requests with a token bucket
+ * that spreads the remaining daily quota evenly over the rest of the (UTC)
+ * day. The current time is passed in.
+ */
+public class RequestBudget {
+    // requests that may be made back to back, e.g. the two of one update
+    public static final int BURST = 10;
+    // never spend the last requests of the day
+    public static final int RESERVE = 10;
+
+    private final Map<String, Long> mBackoffUntil = new HashMap<String, Long>();
+
+    private int mQuotaRemaining = -1;
+    private int mQuotaMax = -1;
+    private long mQuotaTimestamp;
+
+    private double mTokens = BURST;
+    private long mTokensTimestamp;
+
+    public RequestBudget(long now) {
+        mTokensTimestamp = now;
+    }
+
+    /**
+     * Records the wrapper fields of a response to the endpoint that was fetched
+     * at the given time. Replayed (cached) responses are recognized by their
+     * timestamp and do not overwrite newer values. Returns true if the
+     * response extended the backoff of the endpoint.
+     */
+    public synchronized boolean record(String endpoint, ApiParser.Wrapper wrapper,
+            long timestamp) {
+        boolean backoff = false;
+        if (wrapper.backoff > 0) {
+            long until = timestamp + wrapper.backoff * 1000L;
+            Long current = mBackoffUntil.get(endpoint);
+            if (current == null || current < until) {
+                mBackoffUntil.put(endpoint, until);
+                backoff = true;
+            }
+        }
+        if (wrapper.quotaRemaining >= 0 && timestamp >= mQuotaTimestamp) {
+            mQuotaRemaining = wrapper.quotaRemaining;
+            mQuotaMax = wrapper.quotaMax;
+            mQuotaTimestamp = timestamp;
+        }
+        return backoff;
+    }
+
+    /**
+     * Returns true and takes one request from the budget if the endpoint may
+     * be requested now.
+     */
+    public synchronized boolean acquire(String endpoint, long now) {
+        if (getBackoffRemaining(endpoint, now) > 0) {
+            return false;
+        }
+        int quotaRemaining = getQuotaRemaining(now);
+        if (quotaRemaining >= 0 && quotaRemaining <= RESERVE) {
+            return false;
+        }
+        refill(now);
+        if (mTokens < 1) {
+            return false;
+        }
+        mTokens--;
+        if (mQuotaRemaining > 0) {
+            // count locally until the next response reports the real value
+            mQuotaRemaining--;
+        }
+        return true;
+    }
+
+    private void refill(long now) {
+        long elapsed = Math.max(0, now - mTokensTimestamp);
+        mTokensTimestamp = now;
+        int quotaRemaining = getQuotaRemaining(now);
+        if (quotaRemaining < 0) {
+            // nothing known about the quota yet
+            mTokens = BURST;
+            return;
+        }
+        long untilReset = Math.max(1, CalendarUtils.getTomorrow(now) - now);
+        double rate = (double) (quotaRemaining - RESERVE) / untilReset;
+        mTokens = Math.min(BURST, mTokens + elapsed * rate);
+    }
+
+    public synchronized long getBackoffRemaining(String endpoint, long now) {
+        Long until = mBackoffUntil.get(endpoint);
+        if (until == null) {
+            return 0;
+        }
+        long remaining = until - now;
+        if (remaining <= 0) {
+            mBackoffUntil.remove(endpoint);
+            return 0;
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the last known remaining quota of the day, or -1 if unknown.
+     */
+    public synchronized int getQuotaRemaining(long now) {
+        if (mQuotaTimestamp < CalendarUtils.getToday(now)) {
+            // the quota has been reset since it was reported
+            return mQuotaMax;
+        }
+        return mQuotaRemaining;
+    }
+
+    public synchronized int getQuotaMax() {
+        return mQuotaMax;
+    }
+
+    /**
+     * Returns the number of requests that may be made right now.
+     */
+    public synchronized int getAvailableRequests(long now) {
+        refill(now);
+        return (int) mTokens;
+    }
+
+    public synchronized String toString(long now) {
+        return "quota=" + getQuotaRemaining(now) + "/" + getQuotaMax()
+                + ", available=" + getAvailableRequests(now)
+                + ", backoffs=" + mBackoffUntil.keySet();
+    }
+}
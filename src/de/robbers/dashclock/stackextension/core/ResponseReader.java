@@ -0,0 +1,94 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Reads API response bodies, decoded as their Content-Encoding says, and
+ * tells bodies with items from errors. The bodies are decoded into buffers
+ * kept here between requests, at most one decoder per connection.
+ */
+public class ResponseReader {
+    private final int mMaxDecoders;
+    private final ArrayDeque<BodyDecoder> mDecoders = new ArrayDeque<BodyDecoder>();
+
+    /**
+     * A decoded body and the number of bytes it took on the wire.
+     */
+    public static class Body {
+        public final byte[] bytes;
+        public final int wireLength;
+
+        Body(byte[] bytes, int wireLength) {
+            this.bytes = bytes;
+            this.wireLength = wireLength;
+        }
+    }
+
+    /**
+     * @param maxDecoders the number of decoders kept, the number of
+     *            connections that are read at the same time
+     */
+    public ResponseReader(int maxDecoders) {
+        mMaxDecoders = maxDecoders;
+    }
+
+    public Body decode(InputStream content, String contentEncoding) throws IOException {
+        BodyDecoder decoder = obtainDecoder();
+        try {
+            decoder.decode(content, contentEncoding);
+            // the only allocation that grows with the body, since the caller
+            // and the response cache keep it
+            return new Body(decoder.toByteArray(), decoder.getWireLength());
+        } finally {
+            recycleDecoder(decoder);
+        }
+    }
+
+    /**
+     * Returns the body if the status is a 2xx and the body has items; fails
+     * with an {@link ApiErrorException} otherwise.
+     */
+    public static byte[] check(int status, byte[] body) throws IOException {
+        if (status < 200 || status >= 300) {
+            ApiParser.ApiError error = null;
+            try {
+                error = parseError(body);
+            } catch (IOException e) {
+                // not even an error response
+            }
+            throw new ApiErrorException(status, error);
+        }
+        ApiParser.ApiError error = parseError(body);
+        if (error != null) {
+            throw new ApiErrorException(status, error);
+        }
+        return body;
+    }
+
+    /**
+     * Returns the error the body describes, or null if it has items.
+     */
+    private static ApiParser.ApiError parseError(byte[] body) throws IOException {
+        return ApiParser.parseError(new Utf8Reader(body));
+    }
+
+    private BodyDecoder obtainDecoder() {
+        synchronized (mDecoders) {
+            BodyDecoder decoder = mDecoders.poll();
+            return decoder != null ? decoder : new BodyDecoder();
+        }
+    }
+
+    private void recycleDecoder(BodyDecoder decoder) {
+        decoder.trim();
+        synchronized (mDecoders) {
+            if (mDecoders.size() < mMaxDecoders) {
+                mDecoders.push(decoder);
+                return;
+            }
+        }
+        decoder.end();
+    }
+}
@@ -0,0 +1,225 @@
+package de.robbers.dashclock.stackextension.core;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stack Exchange sites stored as compact parallel arrays, with a hash index by
+ * API site parameter for O(1) lookups.
+ */
+public class SiteCatalog {
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final String[] mNames;
+    private final String[] mApiParameters;
+    private final String[] mUrls;
+    private final String[] mIconUrls;
+    private final Map<String, Integer> mIndex;
+
+    public SiteCatalog(String[] names, String[] apiParameters, String[] urls, String[] iconUrls) {
+        mNames = names;
+        mApiParameters = apiParameters;
+        mUrls = urls;
+        mIconUrls = iconUrls;
+        mIndex = new HashMap<String, Integer>(apiParameters.length * 2);
+        for (int i = 0; i < apiParameters.length; i++) {
+            mIndex.put(apiParameters[i], i);
+        }
+    }
+
+    /**
+     * Reads a JSON array of site objects with name, api_site_parameter,
+     * site_url and optionally icon_url fields, like the bundled sites.json.
+     */
+    public static SiteCatalog parse(Reader in) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<String> apiParameters = new ArrayList<String>();
+        List<String> urls = new ArrayList<String>();
+        List<String> iconUrls = new ArrayList<String>();
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String apiParameter = null;
+                String url = null;
+                String iconUrl = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("name")) {
+                        name = reader.nextString();
+                    } else if (key.equals("api_site_parameter")) {
+                        apiParameter = reader.nextString();
+                    } else if (key.equals("site_url")) {
+                        url = reader.nextString();
+                    } else if (key.equals("icon_url")) {
+                        iconUrl = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (apiParameter != null) {
+                    names.add(name);
+                    apiParameters.add(apiParameter);
+                    urls.add(url);
+                    iconUrls.add(iconUrl);
+                }
+            }
+            reader.endArray();
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader for unexpected tokens
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return new SiteCatalog(names.toArray(new String[names.size()]),
+                apiParameters.toArray(new String[apiParameters.size()]),
+                urls.toArray(new String[urls.size()]),
+                iconUrls.toArray(new String[iconUrls.size()]));
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(DataOutputStream)}.
+     */
+    public static SiteCatalog read(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Unknown snapshot version");
+        }
+        int size = in.readInt();
+        String[] names = new String[size];
+        String[] apiParameters = new String[size];
+        String[] urls = new String[size];
+        String[] iconUrls = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = in.readUTF();
+            apiParameters[i] = in.readUTF();
+            urls[i] = in.readUTF();
+            iconUrls[i] = in.readUTF();
+            if (iconUrls[i].length() == 0) {
+                iconUrls[i] = null;
+            }
+        }
+        return new SiteCatalog(names, apiParameters, urls, iconUrls);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(mApiParameters.length);
+        for (int i = 0; i < mApiParameters.length; i++) {
+            out.writeUTF(mNames[i] == null ? "" : mNames[i]);
+            out.writeUTF(mApiParameters[i]);
+            out.writeUTF(mUrls[i] == null ? "" : mUrls[i]);
+            out.writeUTF(mIconUrls[i] == null ? "" : mIconUrls[i]);
+        }
+    }
+
+    /**
+     * Applies fetched sites to this catalog. Known sites keep their position
+     * and take the fetched name and URLs, new sites are appended. Sites missing
+     * from the fetched list are only dropped if the list is complete. Returns
+     * this catalog if nothing changed.
+     */
+    public SiteCatalog merge(List<ApiParser.Site> sites, boolean complete) {
+        List<String> names = new ArrayList<String>(Arrays.asList(mNames));
+        List<String> apiParameters = new ArrayList<String>(Arrays.asList(mApiParameters));
+        List<String> urls = new ArrayList<String>(Arrays.asList(mUrls));
+        List<String> iconUrls = new ArrayList<String>(Arrays.asList(mIconUrls));
+        Set<String> seen = new HashSet<String>(sites.size() * 2);
+        boolean changed = false;
+        for (ApiParser.Site site : sites) {
+            if (!seen.add(site.apiSiteParameter)) {
+                continue;
+            }
+            int index = indexOf(site.apiSiteParameter);
+            if (index < 0) {
+                names.add(site.name);
+                apiParameters.add(site.apiSiteParameter);
+                urls.add(site.siteUrl);
+                iconUrls.add(site.iconUrl);
+                changed = true;
+            } else if (!equal(mNames[index], site.name) || !equal(mUrls[index], site.siteUrl)
+                    || !equal(mIconUrls[index], site.iconUrl)) {
+                names.set(index, site.name);
+                urls.set(index, site.siteUrl);
+                iconUrls.set(index, site.iconUrl);
+                changed = true;
+            }
+        }
+        // an empty list is rather a broken response than a closed network
+        if (complete && !seen.isEmpty()) {
+            for (int i = apiParameters.size() - 1; i >= 0; i--) {
+                if (!seen.contains(apiParameters.get(i))) {
+                    names.remove(i);
+                    apiParameters.remove(i);
+                    urls.remove(i);
+                    iconUrls.remove(i);
+                    changed = true;
+                }
+            }
+        }
+        if (!changed) {
+            return this;
+        }
+        return new SiteCatalog(names.toArray(new String[names.size()]),
+                apiParameters.toArray(new String[apiParameters.size()]),
+                urls.toArray(new String[urls.size()]),
+                iconUrls.toArray(new String[iconUrls.size()]));
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static SiteCatalog empty() {
+        return new SiteCatalog(new String[0], new String[0], new String[0], new String[0]);
+    }
+
+    public int size() {
+        return mApiParameters.length;
+    }
+
+    public int indexOf(String apiParameter) {
+        Integer index = mIndex.get(apiParameter);
+        return index == null ? -1 : index;
+    }
+
+    public String[] getNames() {
+        return mNames;
+    }
+
+    public String[] getApiParameters() {
+        return mApiParameters;
+    }
+
+    public String[] getUrls() {
+        return mUrls;
+    }
+
+    public String getUrlFromApiParameter(String apiParameter) {
+        int index = indexOf(apiParameter);
+        return index < 0 ? null : mUrls[index];
+    }
+
+    public String getNameFromApiParameter(String apiParameter) {
+        int index = indexOf(apiParameter);
+        return index < 0 ? null : mNames[index];
+    }
+
+    public String getIconUrlFromApiParameter(String apiParameter) {
+        int index = indexOf(apiParameter);
+        return index < 0 ? null : mIconUrls[index];
+    }
+}
@@ -0,0 +1,94 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Single-flight execution of updates. Callers with the same key share one
+ * fetch: a caller that arrives while it is running waits for its result, and
+ * a caller that arrives shortly after it finished gets the same result without
+ * fetching again. Failed fetches (null results) are not shared afterwards,
+ * and finished flights are dropped once their window has passed.
+ */
+public class UpdateCoalescer<T> {
+    private final long mWindow;
+    private final Map<String, Flight<T>> mFlights = new HashMap<String, Flight<T>>();
+
+    private static class Flight<T> {
+        final FutureTask<T> task;
+        // when the fetch finished, 0 while it runs
+        long completed;
+
+        Flight(Callable<T> fetch) {
+            task = new FutureTask<T>(fetch);
+        }
+    }
+
+    /**
+     * @param window how long a finished result is shared, in ms
+     */
+    public UpdateCoalescer(long window) {
+        mWindow = window;
+    }
+
+    /**
+     * Returns the result for the key, running fetch on the calling thread if
+     * there is no running or recent flight to join. Returns null if the fetch
+     * failed or the thread was interrupted while waiting.
+     */
+    public T run(String key, Callable<T> fetch) {
+        Flight<T> flight;
+        boolean owner = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictExpired(now);
+            flight = mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<T>(fetch);
+                mFlights.put(key, flight);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            flight.task.run();
+            synchronized (this) {
+                flight.completed = System.currentTimeMillis();
+                if (getQuietly(flight) == null && mFlights.get(key) == flight) {
+                    mFlights.remove(key);
+                }
+            }
+        }
+        return getQuietly(flight);
+    }
+
+    /**
+     * Drops the finished flights whose result is no longer shared, so keys of
+     * old settings do not pile up.
+     */
+    private void evictExpired(long now) {
+        Iterator<Flight<T>> flights = mFlights.values().iterator();
+        while (flights.hasNext()) {
+            Flight<T> flight = flights.next();
+            if (flight.completed > 0 && now - flight.completed > mWindow) {
+                flights.remove();
+            }
+        }
+    }
+
+    private static <T> T getQuietly(Flight<T> flight) {
+        try {
+            return flight.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.Reader;
+
+/**
+ * Reads UTF-8 straight out of a byte array. Unlike an InputStreamReader there
+ * is no decoder and no intermediate byte or char buffer, the characters are
+ * decoded into the caller's array. Malformed sequences read as U+FFFD.
+ */
+public class Utf8Reader extends Reader {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private byte[] mBytes;
+    private int mPosition;
+    private int mEnd;
+    // low surrogate of a supplementary character that did not fit the last read
+    private char mPending;
+
+    public Utf8Reader() {
+        this(new byte[0], 0, 0);
+    }
+
+    public Utf8Reader(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public Utf8Reader(byte[] bytes, int offset, int length) {
+        reset(bytes, offset, length);
+    }
+
+    /**
+     * Starts reading another array, so one reader can be reused.
+     */
+    public Utf8Reader reset(byte[] bytes, int offset, int length) {
+        mBytes = bytes;
+        mPosition = offset;
+        mEnd = offset + length;
+        mPending = 0;
+        // a byte order mark is not part of the JSON
+        if (length >= 3 && (bytes[offset] & 0xFF) == 0xEF && (bytes[offset + 1] & 0xFF) == 0xBB
+                && (bytes[offset + 2] & 0xFF) == 0xBF) {
+            mPosition += 3;
+        }
+        return this;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int out = offset;
+        int end = offset + length;
+        if (mPending != 0) {
+            buffer[out++] = mPending;
+            mPending = 0;
+        }
+        byte[] bytes = mBytes;
+        int position = mPosition;
+        while (out < end && position < mEnd) {
+            int b = bytes[position];
+            if (b >= 0) {
+                buffer[out++] = (char) b;
+                position++;
+                continue;
+            }
+            int lead = b & 0xFF;
+            int count;
+            int codePoint;
+            int min;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                count = 1;
+                codePoint = lead & 0x1F;
+                min = 0x80;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                count = 2;
+                codePoint = lead & 0x0F;
+                min = 0x800;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                count = 3;
+                codePoint = lead & 0x07;
+                min = 0x10000;
+            } else {
+                buffer[out++] = REPLACEMENT;
+                position++;
+                continue;
+            }
+
+            int next = position + 1;
+            int i = 0;
+            for (; i < count && next < mEnd; i++, next++) {
+                int continuation = bytes[next] & 0xFF;
+                if ((continuation & 0xC0) != 0x80) {
+                    break;
+                }
+                codePoint = (codePoint << 6) | (continuation & 0x3F);
+            }
+            if (i < count || codePoint < min || codePoint > 0x10FFFF
+                    || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                // replaces the lead and the continuation bytes seen so far
+                buffer[out++] = REPLACEMENT;
+                position = next;
+                continue;
+            }
+            position = next;
+            if (codePoint < 0x10000) {
+                buffer[out++] = (char) codePoint;
+            } else {
+                // Character.highSurrogate() needs API level 19
+                buffer[out++] = (char) (0xD800 + ((codePoint - 0x10000) >>> 10));
+                char low = (char) (0xDC00 + (codePoint & 0x3FF));
+                if (out < end) {
+                    buffer[out++] = low;
+                } else {
+                    mPending = low;
+                }
+            }
+        }
+        mPosition = position;
+        int count = out - offset;
+        return count == 0 && mPending == 0 ? -1 : count;
+    }
+
+    @Override
+    public boolean ready() {
+        return mPending != 0 || mPosition < mEnd;
+    }
+
+    @Override
+    public void close() {
+        mPosition = mEnd;
+        mPending = 0;
+    }
+}
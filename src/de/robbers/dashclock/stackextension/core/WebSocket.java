@@ -0,0 +1,367 @@
+package de.robbers.dashclock.stackextension.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Minimal RFC 6455 websocket client for text messages, just enough for the
+ * Stack Exchange realtime feed: ws and wss URIs, masked client frames,
+ * fragmented messages and ping/pong. Messages are received on one thread;
+ * {@link #sendText(String)} and {@link #close()} may be called from any
+ * thread, closing unblocks a waiting {@link #receive()}.
+ */
+public class WebSocket {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    // normal closure
+    private static final int STATUS_NORMAL = 1000;
+
+    // larger messages are not expected from the feed and end the connection
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final Socket mSocket;
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    private final SecureRandom mRandom = new SecureRandom();
+    private volatile boolean mClosed;
+
+    private WebSocket(Socket socket) throws IOException {
+        mSocket = socket;
+        mIn = new BufferedInputStream(socket.getInputStream());
+        mOut = socket.getOutputStream();
+    }
+
+    /**
+     * Opens a connection and performs the opening handshake.
+     *
+     * @param origin sent as Origin header, may be null
+     * @param timeout connect and read timeout in ms, 0 for none
+     */
+    public static WebSocket connect(URI uri, String origin, int timeout) throws IOException {
+        String scheme = uri.getScheme();
+        boolean secure = "wss".equalsIgnoreCase(scheme);
+        if (!secure && !"ws".equalsIgnoreCase(scheme)) {
+            throw new IOException("Unsupported scheme " + scheme);
+        }
+        String host = uri.getHost();
+        if (host == null) {
+            throw new IOException("Missing host in " + uri);
+        }
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            if (secure) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, host, port, true);
+                sslSocket.startHandshake();
+                // plain SSL sockets do not check that the certificate is the host's
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host,
+                        sslSocket.getSession())) {
+                    throw new IOException("Certificate does not match " + host);
+                }
+                socket = sslSocket;
+            }
+            WebSocket webSocket = new WebSocket(socket);
+            webSocket.handshake(uri, host, port, secure, origin);
+            return webSocket;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private void handshake(URI uri, String host, int port, boolean secure, String origin)
+            throws IOException {
+        byte[] nonce = new byte[16];
+        mRandom.nextBytes(nonce);
+        String key = base64(nonce);
+
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        boolean defaultPort = port == (secure ? 443 : 80);
+        StringBuilder request = new StringBuilder()
+                .append("GET ").append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append(defaultPort ? "" : ":" + port).append("\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Key: ").append(key).append("\r\n")
+                .append("Sec-WebSocket-Version: 13\r\n");
+        if (origin != null) {
+            request.append("Origin: ").append(origin).append("\r\n");
+        }
+        request.append("\r\n");
+        mOut.write(request.toString().getBytes(ISO_8859_1));
+        mOut.flush();
+
+        String status = readLine();
+        String[] parts = status.split(" ");
+        if (parts.length < 2 || !parts[1].equals("101")) {
+            throw new IOException("Handshake failed: " + status);
+        }
+        String accept = null;
+        String line;
+        while ((line = readLine()).length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.US)
+                    .equals("sec-websocket-accept")) {
+                accept = line.substring(colon + 1).trim();
+            }
+        }
+        if (!getAcceptKey(key).equals(accept)) {
+            throw new IOException("Handshake failed: unexpected accept key " + accept);
+        }
+    }
+
+    /**
+     * Returns the Sec-WebSocket-Accept value that answers the given key.
+     */
+    public static String getAcceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + GUID).getBytes(ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = mIn.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+            if (line.size() > 8192) {
+                throw new IOException("Handshake line too long");
+            }
+        }
+        return new String(line.toByteArray(), ISO_8859_1);
+    }
+
+    /**
+     * Blocks until the next text message arrives and returns it, or returns
+     * null if the server closed the connection. Pings are answered while
+     * waiting.
+     */
+    public String receive() throws IOException {
+        ByteArrayOutputStream message = null;
+        while (true) {
+            int first = read();
+            int second = read();
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            if ((second & 0x80) != 0) {
+                throw new IOException("Masked frame from server");
+            }
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = (read() << 8) | read();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | read();
+                }
+            }
+            if (length < 0) {
+                // the most significant bit of a 64 bit length must be 0
+                throw new ProtocolException("Invalid frame length: " + length);
+            }
+            if (length > MAX_MESSAGE_SIZE) {
+                throw new IOException("Frame too large: " + length);
+            }
+            byte[] payload = readFully((int) length);
+
+            switch (opcode) {
+                case OPCODE_PING:
+                    send(OPCODE_PONG, payload);
+                    break;
+                case OPCODE_PONG:
+                    break;
+                case OPCODE_CLOSE:
+                    close();
+                    return null;
+                case OPCODE_TEXT:
+                case OPCODE_BINARY:
+                    if (message != null) {
+                        throw new IOException("Unfinished fragmented message");
+                    }
+                    message = new ByteArrayOutputStream();
+                    if (append(message, payload, fin)) {
+                        return new String(message.toByteArray(), UTF_8);
+                    }
+                    break;
+                case OPCODE_CONTINUATION:
+                    if (message == null) {
+                        throw new IOException("Unexpected continuation frame");
+                    }
+                    if (append(message, payload, fin)) {
+                        return new String(message.toByteArray(), UTF_8);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown opcode " + opcode);
+            }
+        }
+    }
+
+    /**
+     * Adds a frame to the message and returns true if it was the last one.
+     */
+    private static boolean append(ByteArrayOutputStream message, byte[] payload, boolean fin)
+            throws IOException {
+        message.write(payload);
+        if (message.size() > MAX_MESSAGE_SIZE) {
+            throw new IOException("Message too large");
+        }
+        return fin;
+    }
+
+    private int read() throws IOException {
+        int b = mIn.read();
+        if (b == -1) {
+            throw new EOFException("Connection closed");
+        }
+        return b;
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = mIn.read(buffer, offset, length - offset);
+            if (count == -1) {
+                throw new EOFException("Connection closed");
+            }
+            offset += count;
+        }
+        return buffer;
+    }
+
+    public void sendText(String text) throws IOException {
+        send(OPCODE_TEXT, text.getBytes(UTF_8));
+    }
+
+    private synchronized void send(int opcode, byte[] payload) throws IOException {
+        int length = payload.length;
+        int headerLength = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        byte[] frame = new byte[headerLength + 4 + length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            frame[1] = (byte) (0x80 | length);
+        } else if (length <= 0xFFFF) {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (length >> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = (byte) (0x80 | 127);
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+            }
+        }
+        // client frames are always masked, with a fresh key per frame
+        byte[] mask = new byte[4];
+        mRandom.nextBytes(mask);
+        System.arraycopy(mask, 0, frame, headerLength, 4);
+        for (int i = 0; i < length; i++) {
+            frame[headerLength + 4 + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        mOut.write(frame);
+        mOut.flush();
+    }
+
+    /**
+     * Sets how long {@link #receive()} waits for data, in ms, before failing
+     * with a SocketTimeoutException.
+     */
+    public void setReadTimeout(int timeout) throws IOException {
+        mSocket.setSoTimeout(timeout);
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Sends a close frame, unless already closed, and closes the socket.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            send(OPCODE_CLOSE, new byte[] {
+                    (byte) (STATUS_NORMAL >> 8), (byte) STATUS_NORMAL
+            });
+        } catch (IOException e) {
+            // the connection is already gone
+        }
+        closeQuietly(mSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+            out.append(BASE64[(b >> 18) & 0x3F]).append(BASE64[(b >> 12) & 0x3F]);
+            out.append(i + 1 < data.length ? BASE64[(b >> 6) & 0x3F] : '=');
+            out.append(i + 2 < data.length ? BASE64[b & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+}
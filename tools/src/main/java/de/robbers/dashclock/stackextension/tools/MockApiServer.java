@@ -0,0 +1,439 @@
+package de.robbers.dashclock.stackextension.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in of the Stack Exchange API (2.1) for the routes the extension
+ * uses. Users replay a recorded fixture, the bundled site list is paged like
+ * the API pages it, reputation histories are replayed or generated at any
+ * size and paged too, and post titles and filters are made up. Responses are
+ * gzipped like the API's, or deflated or sent as they are if the client does
+ * not accept gzip. Latency, server errors, truncated bodies and backoff
+ * fields can be injected with a given probability. The reported quota counts
+ * down with every request to the server.
+ *
+ * <pre>
+ * MockApiServer [port] [--fixtures dir] [--history events] [--latency ms]
+ *     [--jitter ms] [--error-rate p] [--truncate-rate p] [--backoff-rate p]
+ *     [--backoff seconds] [--quota n] [--seed n]
+ * </pre>
+ *
+ * Point the extension at it with the "API server" setting, e.g.
+ * {@code http://10.0.2.2:8080/2.1} from the emulator.
+ */
+public class MockApiServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final String BASE_PATH = "/2.1/";
+    private static final int DEFAULT_QUOTA = 10000;
+    private static final int DEFAULT_PAGE_SIZE = 30;
+    private static final long ONE_DAY = 24 * 60 * 60;
+    // generated histories cover the days the extension syncs
+    private static final long HISTORY_DAYS = 31;
+
+    private static final String[] VOTE_TYPES = {
+            "up_votes", "up_votes", "up_votes", "up_votes", "accepts", "down_votes", "bounties_won"
+    };
+
+    /**
+     * What the server injects into its responses.
+     */
+    public static class Options {
+        public File fixtures;
+        // events of generated reputation histories, 0 to replay the fixture
+        public int history;
+        public int latency;
+        public int jitter;
+        public double errorRate;
+        public double truncateRate;
+        public double backoffRate;
+        public int backoff = 10;
+        public int quota = DEFAULT_QUOTA;
+        public long seed = 1;
+        // requests are logged unless the server runs within a harness
+        public boolean quiet;
+
+        /**
+         * Consumes the option at args[i] and returns the index of its last
+         * argument, or returns -1 if it is not a server option.
+         */
+        public int parse(String[] args, int i) {
+            switch (args[i]) {
+                case "--fixtures":
+                    fixtures = new File(args[++i]);
+                    return i;
+                case "--history":
+                    history = Integer.parseInt(args[++i]);
+                    return i;
+                case "--latency":
+                    latency = Integer.parseInt(args[++i]);
+                    return i;
+                case "--jitter":
+                    jitter = Integer.parseInt(args[++i]);
+                    return i;
+                case "--error-rate":
+                    errorRate = Double.parseDouble(args[++i]);
+                    return i;
+                case "--truncate-rate":
+                    truncateRate = Double.parseDouble(args[++i]);
+                    return i;
+                case "--backoff-rate":
+                    backoffRate = Double.parseDouble(args[++i]);
+                    return i;
+                case "--backoff":
+                    backoff = Integer.parseInt(args[++i]);
+                    return i;
+                case "--quota":
+                    quota = Integer.parseInt(args[++i]);
+                    return i;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    return i;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private final Options mOptions;
+    private final HttpServer mServer;
+    private final Random mRandom;
+    private final Map<String, byte[]> mFixtures = new HashMap<>();
+    // the items of the site list, served in pages
+    private final List<String> mSites = new ArrayList<>();
+    // fixed when the server starts, so generated pages stay consistent
+    private final long mNow = System.currentTimeMillis() / 1000;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mTruncated = new AtomicInteger();
+    private final AtomicInteger mBackoffs = new AtomicInteger();
+
+    public MockApiServer(int port, Options options) throws IOException {
+        mOptions = options;
+        mRandom = new Random(options.seed);
+        for (String name : new String[] {"user", "reputation", "sites"}) {
+            mFixtures.put(name, loadFixture(name));
+        }
+        // the bundled list is a bare array, a recorded response has items
+        JsonElement sites = new JsonParser().parse(
+                new String(mFixtures.get("sites"), StandardCharsets.UTF_8));
+        JsonArray items = sites.isJsonArray() ? sites.getAsJsonArray()
+                : sites.getAsJsonObject().getAsJsonArray("items");
+        for (JsonElement site : items) {
+            mSites.add(site.toString());
+        }
+        // without it, Nagle and delayed ACKs add 40ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(port), 0);
+        mServer.createContext("/", this::handle);
+        mServer.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "mock-api");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length; i++) {
+            int last = options.parse(args, i);
+            if (last >= 0) {
+                i = last;
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        MockApiServer server = new MockApiServer(port, options);
+        server.start();
+        System.out.println("Serving " + server.getApiUrl());
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+    }
+
+    public String getApiUrl() {
+        return "http://localhost:" + mServer.getAddress().getPort() + "/2.1";
+    }
+
+    public String getStats() {
+        return "requests=" + mRequests.get() + ", errors=" + mErrors.get()
+                + ", truncated=" + mTruncated.get() + ", backoffs=" + mBackoffs.get();
+    }
+
+    /**
+     * Returns the fixture as plain JSON, from name.json.gz or name.json in the
+     * fixture directory, or from the bundled fixtures.
+     */
+    private byte[] loadFixture(String name) throws IOException {
+        if (mOptions.fixtures != null) {
+            File gzipped = new File(mOptions.fixtures, name + ".json.gz");
+            if (gzipped.exists()) {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(gzipped.toPath()))) {
+                    return readFully(in);
+                }
+            }
+            File plain = new File(mOptions.fixtures, name + ".json");
+            if (plain.exists()) {
+                return Files.readAllBytes(plain.toPath());
+            }
+        }
+        // the recorded responses of the benchmarks and the bundled site list
+        String resource = name.equals("sites") ? "/sites.json" : "/fixtures/" + name + ".json";
+        try (InputStream in = MockApiServer.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            return readFully(in);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            mRequests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!mOptions.quiet) {
+                System.out.println("[mock] " + exchange.getRequestMethod() + " "
+                        + exchange.getRequestURI());
+            }
+
+            sleep(mOptions.latency + (mOptions.jitter > 0 ? random().nextInt(mOptions.jitter) : 0));
+            if (random().nextDouble() < mOptions.errorRate) {
+                mErrors.incrementAndGet();
+                send(exchange, 500, error(500, "internal_error", "Injected error"), false);
+                return;
+            }
+            if (!path.startsWith(BASE_PATH)) {
+                send(exchange, 404, error(404, "no_method", "Unknown path " + path), false);
+                return;
+            }
+            byte[] body = route(path.substring(BASE_PATH.length()), query);
+            if (body == null) {
+                send(exchange, 404, error(404, "no_method", "Unknown method " + path), false);
+                return;
+            }
+            send(exchange, 200, body, random().nextDouble() < mOptions.truncateRate);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] route(String method, Map<String, String> query) {
+        String[] parts = method.split("/");
+        if (parts[0].equals("filters") && parts.length == 2 && parts[1].equals("create")) {
+            String definition = query.getOrDefault("include", "") + query.getOrDefault("exclude", "");
+            return wrap("{\"filter\":\"!mock" + Integer.toHexString(definition.hashCode())
+                    + "\",\"filter_type\":\"safe\"}", false);
+        } else if (parts[0].equals("sites") && parts.length == 1) {
+            return sites(query);
+        } else if (parts[0].equals("posts") && parts.length == 2) {
+            return posts(parts[1]);
+        } else if (parts[0].equals("users") && parts.length == 3 && parts[2].equals("reputation")) {
+            return mOptions.history > 0 ? reputation(query) : mFixtures.get("reputation");
+        } else if (parts[0].equals("users") && (parts.length == 2
+                || parts.length == 3 && parts[2].equals("associated"))) {
+            return mFixtures.get("user");
+        }
+        return null;
+    }
+
+    private byte[] sites(Map<String, String> query) {
+        int page = (int) Math.max(1, parseLong(query.get("page"), 1));
+        int pageSize = (int) Math.min(100, Math.max(1, parseLong(query.get("pagesize"),
+                DEFAULT_PAGE_SIZE)));
+        int start = (int) Math.min(mSites.size(), (long) (page - 1) * pageSize);
+        int end = Math.min(mSites.size(), start + pageSize);
+        return wrap(String.join(",", mSites.subList(start, end)), end < mSites.size());
+    }
+
+    private byte[] posts(String ids) {
+        StringBuilder items = new StringBuilder();
+        for (String id : ids.split(";")) {
+            if (items.length() > 0) {
+                items.append(',');
+            }
+            items.append("{\"post_id\":").append(id)
+                    .append(",\"title\":\"Mock post ").append(id).append(" &amp; title\"}");
+        }
+        return wrap(items.toString(), false);
+    }
+
+    /**
+     * Returns a page of a generated history of mOptions.history events over
+     * the last days, newest first, with the fromdate and todate range and
+     * paging of the API. Titles and links are only included for the default
+     * filter, like a lean filter would leave them out.
+     */
+    private byte[] reputation(Map<String, String> query) {
+        long from = parseLong(query.get("fromdate"), 0);
+        long to = parseLong(query.get("todate"), Long.MAX_VALUE);
+        int page = (int) Math.max(1, parseLong(query.get("page"), 1));
+        int pageSize = (int) Math.min(100, Math.max(1, parseLong(query.get("pagesize"),
+                DEFAULT_PAGE_SIZE)));
+        String filter = query.get("filter");
+        boolean titles = filter == null || filter.equals("default");
+
+        int events = mOptions.history;
+        long spacing = Math.max(1, HISTORY_DAYS * ONE_DAY / events);
+        // event i happened at mNow - i * spacing, find the ones within range
+        int first = to >= mNow ? 0 : (int) Math.min(events, (mNow - to + spacing - 1) / spacing);
+        int last = from <= mNow - (long) (events - 1) * spacing ? events - 1
+                : (int) Math.min(events - 1, (mNow - from) / spacing);
+        int start = first + (page - 1) * pageSize;
+        int end = Math.min(last + 1, start + pageSize);
+
+        StringBuilder items = new StringBuilder(Math.max(0, end - start) * 200);
+        int posts = Math.max(1, events / 4);
+        for (int i = start; i < end; i++) {
+            long postId = 1000 + (i * 7919L) % posts;
+            String voteType = VOTE_TYPES[i % VOTE_TYPES.length];
+            int change = voteType.equals("accepts") ? 15 : voteType.equals("down_votes") ? -2
+                    : voteType.equals("bounties_won") ? 50 : 10;
+            if (items.length() > 0) {
+                items.append(',');
+            }
+            items.append("{\"user_id\":1,\"post_id\":").append(postId)
+                    .append(",\"post_type\":\"answer\",\"vote_type\":\"").append(voteType).append('"');
+            if (titles) {
+                items.append(",\"title\":\"Mock post ").append(postId)
+                        .append("\",\"link\":\"http://localhost/q/").append(postId).append('"');
+            }
+            items.append(",\"reputation_change\":").append(change)
+                    .append(",\"on_date\":").append(mNow - i * spacing).append('}');
+        }
+        return wrap(items.toString(), end <= last);
+    }
+
+    private byte[] wrap(String items, boolean hasMore) {
+        int remaining = Math.max(0, mOptions.quota - mRequests.get());
+        return ("{\"items\":[" + items + "],\"has_more\":" + hasMore
+                + ",\"quota_max\":" + mOptions.quota + ",\"quota_remaining\":" + remaining + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] error(int id, String name, String message) {
+        return ("{\"error_id\":" + id + ",\"error_name\":\"" + name + "\",\"error_message\":\""
+                + message + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends the body gzipped or deflated if the client accepts it, with a
+     * backoff field injected into successful responses if the dice say so. A
+     * truncated body announces its full length but ends halfway.
+     */
+    private void send(HttpExchange exchange, int status, byte[] json, boolean truncate)
+            throws IOException {
+        if (status == 200 && random().nextDouble() < mOptions.backoffRate) {
+            mBackoffs.incrementAndGet();
+            String backoff = "{\"backoff\":" + mOptions.backoff + ",";
+            json = (backoff + new String(json, 1, json.length - 1, StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        String encoding = accept == null ? "identity" : accept.contains("gzip") ? "gzip"
+                : accept.contains("deflate") ? "deflate" : "identity";
+        byte[] body = json;
+        if (!encoding.equals("identity")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(compressed)
+                    : new DeflaterOutputStream(compressed)) {
+                out.write(json);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        if (truncate) {
+            mTruncated.incrementAndGet();
+            out.write(body, 0, body.length / 2);
+            out.flush();
+            // closing the exchange before the announced length ends the connection
+            return;
+        }
+        out.write(body);
+    }
+
+    private synchronized Random random() {
+        return mRandom;
+    }
+
+    private static void sleep(int millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        if (query == null) {
+            return values;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                values.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return values;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
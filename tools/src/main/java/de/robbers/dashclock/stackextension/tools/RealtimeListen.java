@@ -0,0 +1,45 @@
+package de.robbers.dashclock.stackextension.tools;
+
+import de.robbers.dashclock.stackextension.core.RealtimeFeed;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Subscribes to a realtime feed topic with the client the extension uses and
+ * prints what happens, against the real feed or {@link RealtimeStandIn}.
+ *
+ * <pre>
+ * RealtimeListen [url] topic
+ * </pre>
+ */
+public class RealtimeListen {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: RealtimeListen [url] topic");
+            System.exit(1);
+        }
+        String url = args.length > 1 ? args[0] : RealtimeFeed.DEFAULT_URL;
+        String topic = args[args.length - 1];
+
+        RealtimeFeed feed = new RealtimeFeed(URI.create(url), topic, new RealtimeFeed.Listener() {
+            @Override
+            public void onConnected(RealtimeFeed feed) {
+                System.out.println("Connected to " + feed.getUri() + ", topic " + feed.getTopic());
+            }
+
+            @Override
+            public void onMessage(RealtimeFeed feed, String data) {
+                System.out.println("Notification: " + data);
+            }
+
+            @Override
+            public void onDisconnected(RealtimeFeed feed, IOException e) {
+                System.out.println("Disconnected" + (e != null ? ": " + e : ""));
+            }
+        });
+        feed.start();
+        Thread.currentThread().join();
+    }
+}
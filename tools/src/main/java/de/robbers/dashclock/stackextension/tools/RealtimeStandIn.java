@@ -0,0 +1,330 @@
+package de.robbers.dashclock.stackextension.tools;
+
+import de.robbers.dashclock.stackextension.core.WebSocket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in of the Stack Exchange realtime websocket feed. Clients
+ * subscribe by sending a topic as a text message, like the real feed. Every
+ * line read from stdin is pushed as a notification to all subscribed topics,
+ * "topic data" lines only to that topic. Heartbeats are sent periodically and
+ * clients that do not echo them are logged.
+ *
+ * <pre>
+ * RealtimeStandIn [port] [--every seconds] [--heartbeat seconds]
+ * </pre>
+ */
+public class RealtimeStandIn {
+    private static final int DEFAULT_PORT = 8787;
+    private static final int DEFAULT_HEARTBEAT = 60;
+
+    private static final String NOTIFICATION_DATA = "{\"Achievements\":1}";
+
+    private final List<Connection> mConnections = new CopyOnWriteArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int every = 0;
+        int heartbeat = DEFAULT_HEARTBEAT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--every")) {
+                every = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--heartbeat")) {
+                heartbeat = Integer.parseInt(args[++i]);
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        new RealtimeStandIn().run(port, every, heartbeat);
+    }
+
+    private void run(int port, int every, int heartbeat) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        log("Listening on ws://localhost:" + server.getLocalPort() + "/");
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::sendHeartbeats, heartbeat, heartbeat, TimeUnit.SECONDS);
+        if (every > 0) {
+            timer.scheduleAtFixedRate(() -> notify(null, NOTIFICATION_DATA), every, every,
+                    TimeUnit.SECONDS);
+        }
+
+        Thread console = new Thread(this::readConsole, "console");
+        console.setDaemon(true);
+        console.start();
+
+        while (true) {
+            Socket socket = server.accept();
+            Connection connection = new Connection(socket);
+            new Thread(connection, "connection-" + socket.getPort()).start();
+        }
+    }
+
+    private void readConsole() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    notify(null, NOTIFICATION_DATA);
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                String first = space > 0 ? line.substring(0, space) : line;
+                if (isSubscribed(first)) {
+                    notify(first, space > 0 ? line.substring(space + 1) : NOTIFICATION_DATA);
+                } else {
+                    notify(null, line);
+                }
+            }
+        } catch (IOException e) {
+            log("Console: " + e);
+        }
+    }
+
+    private boolean isSubscribed(String topic) {
+        for (Connection connection : mConnections) {
+            if (connection.topics.contains(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a notification to all subscribers of the topic, or of any topic if
+     * it is null.
+     */
+    private void notify(String topic, String data) {
+        int count = 0;
+        for (Connection connection : mConnections) {
+            for (String subscribed : connection.topics) {
+                if (topic == null || topic.equals(subscribed)) {
+                    connection.sendQuietly(message(subscribed, data));
+                    count++;
+                }
+            }
+        }
+        log("Sent " + data + " to " + count + " subscription(s)");
+    }
+
+    private void sendHeartbeats() {
+        for (Connection connection : mConnections) {
+            if (connection.heartbeatPending) {
+                log(connection.name + " did not answer the last heartbeat");
+            }
+            connection.heartbeatPending = true;
+            connection.sendQuietly(message("hb", "hb"));
+        }
+    }
+
+    private static String message(String action, String data) {
+        return "{\"action\":" + quote(action) + ",\"data\":" + quote(data) + "}";
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static void log(String message) {
+        System.out.println("[stand-in] " + message);
+    }
+
+    private class Connection implements Runnable {
+        final Socket socket;
+        final String name;
+        final Set<String> topics = new CopyOnWriteArraySet<>();
+        volatile boolean heartbeatPending;
+        private InputStream mIn;
+        private OutputStream mOut;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            name = socket.getRemoteSocketAddress().toString();
+        }
+
+        @Override
+        public void run() {
+            try {
+                mIn = new BufferedInputStream(socket.getInputStream());
+                mOut = socket.getOutputStream();
+                if (!handshake()) {
+                    return;
+                }
+                log(name + " connected");
+                mConnections.add(this);
+                receive();
+            } catch (IOException e) {
+                log(name + ": " + e);
+            } finally {
+                mConnections.remove(this);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                log(name + " disconnected");
+            }
+        }
+
+        private boolean handshake() throws IOException {
+            String request = readLine();
+            String key = null;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim()
+                        .equalsIgnoreCase("Sec-WebSocket-Key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+            }
+            if (!request.startsWith("GET ") || key == null) {
+                mOut.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                return false;
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + WebSocket.getAcceptKey(key) + "\r\n\r\n";
+            mOut.write(response.getBytes(StandardCharsets.ISO_8859_1));
+            mOut.flush();
+            return true;
+        }
+
+        private void receive() throws IOException {
+            while (true) {
+                int first = read();
+                int second = read();
+                int opcode = first & 0x0F;
+                long length = second & 0x7F;
+                if (length == 126) {
+                    length = (read() << 8) | read();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | read();
+                    }
+                }
+                byte[] mask = (second & 0x80) != 0 ? readFully(4) : new byte[4];
+                byte[] payload = readFully((int) length);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+                switch (opcode) {
+                    case 0x1:
+                        String text = new String(payload, StandardCharsets.UTF_8);
+                        if (text.equals("hb")) {
+                            heartbeatPending = false;
+                        } else {
+                            topics.add(text);
+                            log(name + " subscribed to " + text);
+                        }
+                        break;
+                    case 0x8:
+                        send(0x8, payload);
+                        return;
+                    case 0x9:
+                        send(0xA, payload);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        void sendQuietly(String text) {
+            try {
+                send(0x1, text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log(name + ": " + e);
+            }
+        }
+
+        private synchronized void send(int opcode, byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else if (payload.length <= 0xFFFF) {
+                frame.write(126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length);
+            } else {
+                frame.write(127);
+                for (int i = 0; i < 8; i++) {
+                    frame.write((int) ((long) payload.length >> (56 - 8 * i)));
+                }
+            }
+            frame.write(payload);
+            mOut.write(frame.toByteArray());
+            mOut.flush();
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = read()) != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+        private int read() throws IOException {
+            int b = mIn.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed");
+            }
+            return b;
+        }
+
+        private byte[] readFully(int length) throws IOException {
+            byte[] buffer = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = mIn.read(buffer, offset, length - offset);
+                if (count == -1) {
+                    throw new EOFException("Connection closed");
+                }
+                offset += count;
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package de.robbers.dashclock.stackextension.tools;
+
+import de.robbers.dashclock.stackextension.core.ApiErrorException;
+import de.robbers.dashclock.stackextension.core.ApiParser;
+import de.robbers.dashclock.stackextension.core.FileResponseCache;
+import de.robbers.dashclock.stackextension.core.HedgingExecutor;
+import de.robbers.dashclock.stackextension.core.ReputationAggregator;
+import de.robbers.dashclock.stackextension.core.ReputationRollup;
+import de.robbers.dashclock.stackextension.core.RequestBudget;
+import de.robbers.dashclock.stackextension.core.ResponseReader;
+import de.robbers.dashclock.stackextension.core.UpdateCoalescer;
+import de.robbers.dashclock.stackextension.core.Utf8Reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the update cycle thousands of times against {@link MockApiServer}, or
+ * any other API server, and reports the latency percentiles, failures,
+ * allocations per cycle and the growth of the live heap. A cycle requests the
+ * user, all pages of the reputation of the last days into a rollup and
+ * aggregator, and the titles of the top posts, like the extension does. Every
+ * --sites-every cycles, and in the first one, it also refreshes all pages of
+ * the site list.
+ * <p>
+ * The requests take the extension's path through the plain JVM core of its
+ * classes: the triggers of a cycle join one flight of the
+ * {@link UpdateCoalescer}, every request and retry has to pass the
+ * {@link RequestBudget}, which records the quota and backoffs of the
+ * responses, the {@link HedgingExecutor} retries and hedges the attempts, the
+ * {@link ResponseReader} decodes and checks the bodies like ApiClient, and the
+ * {@link FileResponseCache} serves the last response when a request fails.
+ * Only the HTTP client is the JDK's instead of Android's. Every cycle
+ * refetches, like an update after the refresh interval has passed.
+ *
+ * <pre>
+ * SoakTest [--url apiUrl] [--cycles n] [--warmup n] [--site site] [--user id]
+ *     [--accept-encoding encodings] [--sites-every n] [--triggers n]
+ *     [--report-every n] [--max-heap-growth kb] [mock options]
+ * </pre>
+ *
+ * Exits with 1 if the heap grew more than --max-heap-growth KB per 1000
+ * cycles after the warmup.
+ */
+public class SoakTest {
+    private static final int DAYS = 31;
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 50;
+    private static final int MAX_SITE_PAGES = 10;
+    private static final int TOP_POSTS = 5;
+    private static final int TIMEOUT = 15 * 1000;
+    // the connections the executor may use at the same time
+    private static final int CONNECTIONS = 4;
+
+    // the policies of StackExtension and Sites
+    private static final HedgingExecutor.Policy UPDATE_POLICY =
+            new HedgingExecutor.Policy(15 * 1000, 2, true);
+    private static final HedgingExecutor.Policy SITES_POLICY =
+            new HedgingExecutor.Policy(60 * 1000, 3, false);
+
+    private final String mApiUrl;
+    private final String mSite;
+    private final String mUser;
+    private final String mAcceptEncoding;
+    private final int mSitesEvery;
+    private final int mTriggers;
+
+    private final ExecutorService mTriggerPool;
+    private final RequestBudget mBudget = new RequestBudget(System.currentTimeMillis());
+    private final HedgingExecutor mExecutor;
+    private final ResponseReader mReader = new ResponseReader(CONNECTIONS);
+    private final FileResponseCache mCache;
+    // the window of StackExtension; every cycle has its own key, since cycles
+    // run back to back instead of an interval apart
+    private final UpdateCoalescer<Integer> mCoalescer = new UpdateCoalescer<>(5 * 1000);
+    private final HedgingExecutor.Transport mTransport = UrlAttempt::new;
+    private final HedgingExecutor.Listener mListener = new HedgingExecutor.Listener() {
+        @Override
+        public void recordRetry() {
+            mRetries.incrementAndGet();
+        }
+
+        @Override
+        public void recordHedge(boolean won) {
+            mHedges.incrementAndGet();
+        }
+
+        @Override
+        public void recordError() {
+        }
+    };
+
+    private int mCycles;
+    private int mSites;
+    private final AtomicInteger mFetches = new AtomicInteger();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicInteger mDenied = new AtomicInteger();
+    private final AtomicInteger mStale = new AtomicInteger();
+    private final AtomicInteger mRetries = new AtomicInteger();
+    private final AtomicInteger mHedges = new AtomicInteger();
+
+    private SoakTest(String apiUrl, String site, String user, String acceptEncoding,
+            int sitesEvery, int triggers, File cacheDirectory) {
+        mApiUrl = apiUrl;
+        mSite = site;
+        mUser = user;
+        mAcceptEncoding = acceptEncoding;
+        mSitesEvery = sitesEvery;
+        mTriggers = Math.max(1, triggers);
+        // fixed pools, so the allocations of their threads can be summed up
+        mTriggerPool = Executors.newFixedThreadPool(Math.max(1, mTriggers - 1),
+                daemonThreads("trigger"));
+        mExecutor = new HedgingExecutor(Executors.newFixedThreadPool(CONNECTIONS,
+                daemonThreads("request")), this::acquire);
+        mCache = new FileResponseCache(cacheDirectory);
+    }
+
+    public static void main(String[] args) throws IOException {
+        MockApiServer.Options options = new MockApiServer.Options();
+        options.quiet = true;
+        // a soak makes more requests than a day's quota, which the budget
+        // would rightly refuse
+        options.quota = Integer.MAX_VALUE;
+        String url = null;
+        String site = "stackoverflow";
+        String user = "22656";
+        String accept = "gzip, deflate";
+        int cycles = 2000;
+        int warmup = 200;
+        int sitesEvery = 100;
+        int triggers = 2;
+        int reportEvery = 500;
+        long maxHeapGrowth = -1;
+        for (int i = 0; i < args.length; i++) {
+            int last = options.parse(args, i);
+            if (last >= 0) {
+                i = last;
+                continue;
+            }
+            switch (args[i]) {
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--cycles":
+                    cycles = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--site":
+                    site = args[++i];
+                    break;
+                case "--user":
+                    user = args[++i];
+                    break;
+                case "--accept-encoding":
+                    accept = args[++i];
+                    break;
+                case "--sites-every":
+                    sitesEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "--triggers":
+                    triggers = Integer.parseInt(args[++i]);
+                    break;
+                case "--report-every":
+                    reportEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-heap-growth":
+                    maxHeapGrowth = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        MockApiServer server = null;
+        if (url == null) {
+            server = new MockApiServer(0, options);
+            server.start();
+            url = server.getApiUrl();
+        }
+        File cacheDirectory = Files.createTempDirectory("soak-cache").toFile();
+        System.out.println("Soaking " + url + " with " + warmup + " + " + cycles + " cycles");
+        boolean passed;
+        try {
+            passed = new SoakTest(url, site, user, accept, sitesEvery, triggers, cacheDirectory)
+                    .run(warmup, cycles, reportEvery, maxHeapGrowth);
+        } finally {
+            if (server != null) {
+                System.out.println("Mock: " + server.getStats());
+                server.stop();
+            }
+            deleteRecursively(cacheDirectory);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(int warmup, int cycles, int reportEvery, long maxHeapGrowth) {
+        for (int i = 0; i < warmup; i++) {
+            runCycle();
+        }
+        for (AtomicInteger counter : Arrays.asList(mFetches, mRequests, mFailures, mDenied,
+                mStale, mRetries, mHedges)) {
+            counter.set(0);
+        }
+
+        long[] latencies = new long[cycles];
+        boolean measureAllocations = getAllocatedBytes() >= 0;
+        long allocated = 0;
+        long heapStart = getUsedHeap();
+        long heapEnd = heapStart;
+        for (int i = 0; i < cycles; i++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            runCycle();
+            latencies[i] = System.nanoTime() - start;
+            allocated += getAllocatedBytes() - allocatedBefore;
+
+            if ((i + 1) % reportEvery == 0 || i == cycles - 1) {
+                heapEnd = getUsedHeap();
+                System.out.println(String.format(Locale.US,
+                        "%6d cycles, %d fetches, %d requests, %d failed, %d sites, heap %d KB",
+                        i + 1, mFetches.get(), mRequests.get(), mFailures.get(), mSites,
+                        heapEnd / 1024));
+            }
+        }
+
+        Arrays.sort(latencies);
+        long growth = cycles > 0 ? (heapEnd - heapStart) * 1000 / cycles / 1024 : 0;
+        System.out.println(String.format(Locale.US,
+                "Cycle latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99), percentile(latencies, 100)));
+        int requests = mRequests.get();
+        System.out.println(String.format(Locale.US,
+                "Requests: %d, failed: %d (%.2f%%), retries: %d, hedges: %d, denied: %d,"
+                        + " stale: %d",
+                requests, mFailures.get(), requests > 0 ? 100.0 * mFailures.get() / requests : 0,
+                mRetries.get(), mHedges.get(), mDenied.get(), mStale.get()));
+        System.out.println("Triggers: " + (long) cycles * mTriggers + ", fetches: "
+                + mFetches.get() + ", budget: " + mBudget.toString(System.currentTimeMillis()));
+        if (measureAllocations) {
+            System.out.println("Allocated per cycle: " + allocated / Math.max(1, cycles) / 1024
+                    + " KB");
+        }
+        System.out.println("Heap growth: " + growth + " KB per 1000 cycles");
+        if (maxHeapGrowth >= 0 && growth > maxHeapGrowth) {
+            System.out.println("FAILED: heap grew more than " + maxHeapGrowth
+                    + " KB per 1000 cycles");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * One update cycle: all triggers but one are fired from the trigger pool,
+     * the last one from this thread, and they join one fetch.
+     */
+    private void runCycle() {
+        if (mSitesEvery > 0 && mCycles % mSitesEvery == 0) {
+            refreshSites();
+        }
+        mCycles++;
+        String key = mSite + "|" + mUser + "|" + mCycles;
+        List<Future<Integer>> triggers = new ArrayList<>();
+        for (int i = 1; i < mTriggers; i++) {
+            triggers.add(mTriggerPool.submit(() -> mCoalescer.run(key, this::fetch)));
+        }
+        mCoalescer.run(key, this::fetch);
+        for (Future<Integer> trigger : triggers) {
+            try {
+                trigger.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Fetches the data of one update and returns the number of reputation
+     * events, or null if the user could not be fetched. Failed requests are
+     * counted, not thrown, like the extension keeps showing what it has.
+     */
+    private Integer fetch() {
+        mFetches.incrementAndGet();
+        ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+        ApiParser.User user = null;
+        FileResponseCache.Entry response = request("users", "users", "/users/" + mUser
+                + "?filter=default&site=" + mSite, UPDATE_POLICY);
+        if (response != null) {
+            try {
+                user = ApiParser.parseUser(new Utf8Reader(response.payload), wrapper);
+                mBudget.record("users", wrapper, response.timestamp);
+            } catch (IOException | RuntimeException e) {
+                mFailures.incrementAndGet();
+            }
+        }
+        if (user == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        TimeZone zone = TimeZone.getDefault();
+        ReputationRollup rollup = new ReputationRollup(zone,
+                Calendar.getInstance(zone).getFirstDayOfWeek(), DAYS, now);
+        ReputationAggregator aggregator = new ReputationAggregator(TOP_POSTS);
+        AtomicInteger events = new AtomicInteger();
+        ApiParser.ReputationHandler handler = (onDate, postId, voteType, change, title) -> {
+            events.incrementAndGet();
+            rollup.onReputationChange(onDate, postId, voteType, change, title);
+            aggregator.onReputationChange(onDate, postId, voteType, change, title);
+        };
+        long from = now / 1000 - DAYS * 24 * 60 * 60;
+        for (int page = 1; page <= MAX_PAGES; page++) {
+            String query = "reputation?fromdate=" + from + "&todate=" + (now / 1000 + 1)
+                    + "&page=" + page;
+            response = request("reputation", query, "/users/" + mUser + "/" + query
+                    + "&pagesize=" + PAGE_SIZE + "&filter=default&site=" + mSite,
+                    UPDATE_POLICY);
+            if (response == null) {
+                return events.get();
+            }
+            try {
+                wrapper = new ApiParser.Wrapper();
+                ApiParser.parseReputation(new Utf8Reader(response.payload), wrapper, handler);
+                mBudget.record("reputation", wrapper, response.timestamp);
+            } catch (IOException | RuntimeException e) {
+                mFailures.incrementAndGet();
+                return events.get();
+            }
+            if (!wrapper.hasMore) {
+                break;
+            }
+        }
+
+        ReputationAggregator.Post[] posts = aggregator.getTopPosts();
+        if (posts.length == 0) {
+            return events.get();
+        }
+        StringBuilder ids = new StringBuilder();
+        for (ReputationAggregator.Post post : posts) {
+            if (ids.length() > 0) {
+                ids.append(';');
+            }
+            ids.append(post.postId);
+        }
+        response = request("posts", "posts/" + ids, "/posts/" + ids + "?filter=default&site="
+                + mSite, UPDATE_POLICY);
+        if (response != null) {
+            try {
+                Map<Long, String> titles = new HashMap<>();
+                wrapper = new ApiParser.Wrapper();
+                ApiParser.parsePostTitles(new Utf8Reader(response.payload), wrapper, titles);
+                mBudget.record("posts", wrapper, response.timestamp);
+            } catch (IOException | RuntimeException e) {
+                mFailures.incrementAndGet();
+            }
+        }
+        return events.get();
+    }
+
+    /**
+     * Pages through the site list like the extension refreshes its catalog,
+     * without the cache. An incomplete list counts as a failure.
+     */
+    private void refreshSites() {
+        List<ApiParser.Site> sites = new ArrayList<>();
+        for (int page = 1; page <= MAX_SITE_PAGES; page++) {
+            FileResponseCache.Entry response = request("sites", null, "/sites?page=" + page
+                    + "&pagesize=" + PAGE_SIZE + "&filter=default", SITES_POLICY);
+            if (response == null) {
+                return;
+            }
+            ApiParser.Wrapper wrapper = new ApiParser.Wrapper();
+            try {
+                sites.addAll(ApiParser.parseSites(new Utf8Reader(response.payload), wrapper));
+                mBudget.record("sites", wrapper, response.timestamp);
+            } catch (IOException | RuntimeException e) {
+                mFailures.incrementAndGet();
+                return;
+            }
+            if (!wrapper.hasMore) {
+                mSites = sites.size();
+                return;
+            }
+        }
+        mFailures.incrementAndGet();
+    }
+
+    /**
+     * Returns the response of the request, the cached one if the request was
+     * denied or failed, or null if there is none. Responses are only cached
+     * if there is a key.
+     */
+    private FileResponseCache.Entry request(String endpoint, String cacheKey, String path,
+            HedgingExecutor.Policy policy) {
+        String key = cacheKey == null ? null : mSite + "|" + mUser + "|" + cacheKey;
+        FileResponseCache.Entry cached = key == null ? null : mCache.get(key);
+        byte[] body = null;
+        if (acquire(endpoint)) {
+            body = mExecutor.execute(endpoint, mApiUrl + path, policy, mTransport, mListener);
+            if (body == null) {
+                mFailures.incrementAndGet();
+            }
+        }
+        if (body != null) {
+            return key == null ? new FileResponseCache.Entry(body, System.currentTimeMillis())
+                    : mCache.put(key, body);
+        }
+        if (cached != null) {
+            mStale.incrementAndGet();
+        }
+        return cached;
+    }
+
+    private boolean acquire(String endpoint) {
+        if (mBudget.acquire(endpoint, System.currentTimeMillis())) {
+            return true;
+        }
+        mDenied.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * One attempt of a request on a connection of the JDK's HTTP client,
+     * which keeps connections alive between requests.
+     */
+    private class UrlAttempt implements HedgingExecutor.Attempt {
+        private final String mUri;
+        private volatile HttpURLConnection mConnection;
+        private volatile boolean mAborted;
+
+        UrlAttempt(String uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            mRequests.incrementAndGet();
+            HttpURLConnection connection = (HttpURLConnection) new URL(mUri).openConnection();
+            mConnection = connection;
+            if (mAborted) {
+                throw new IOException("Aborted");
+            }
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setRequestProperty("Accept-Encoding", mAcceptEncoding);
+            try {
+                int status = connection.getResponseCode();
+                InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getErrorStream() : connection.getInputStream();
+                if (in == null) {
+                    throw new IOException("Response " + status + " without a body");
+                }
+                ResponseReader.Body body;
+                try {
+                    body = mReader.decode(in, connection.getContentEncoding());
+                } finally {
+                    in.close();
+                }
+                return ResponseReader.check(status, body.bytes);
+            } catch (ApiErrorException e) {
+                // the body was read, so the connection can be reused
+                throw e;
+            } catch (IOException e) {
+                connection.disconnect();
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort() {
+            mAborted = true;
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Unable to delete " + file);
+        }
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private static long getUsedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the bytes allocated by all live threads so far, or -1 if the JVM
+     * does not tell. The pools of the harness are fixed, so their threads stay
+     * alive.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long[] allocated = ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(threads.getAllThreadIds());
+        long sum = 0;
+        for (long bytes : allocated) {
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+}